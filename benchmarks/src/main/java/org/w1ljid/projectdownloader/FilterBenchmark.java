@@ -0,0 +1,155 @@
+package org.w1ljid.projectdownloader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w1ljid.projectdownloader.filters.DeclarationFilter;
+import org.w1ljid.projectdownloader.filters.KeywordFilter;
+import org.w1ljid.projectdownloader.filters.RegexFilter;
+import org.w1ljid.projectdownloader.filters.SketchyCharactersFilter;
+import org.w1ljid.projectdownloader.filters.TokenFilter;
+import org.w1ljid.projectdownloader.matching.TypeDeclaration;
+import org.w1ljid.projectdownloader.util.Metrics;
+
+/**
+ * The filters, run over the synthetic corpus the way processRepository runs them: a reused {@link FileContent} is reset to each file's bytes first.
+ * Scores are per file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+	static final int FILES = 2000;
+	static final long SEED = 1;
+
+	private SyntheticCorpus corpus;
+	private String[] texts;
+	private FileContent content;
+	private StageMetrics stages;
+
+	private final RegexFilter regexFilter = new RegexFilter("class\\s+[A-z]*Adapter", "class\\s+[A-z]*2[A-z]+", "class\\s+[A-z]+To[A-Z][A-z]*");
+	private final KeywordFilter keywordFilter = new KeywordFilter("Test", "junit");
+	private final TokenFilter tokenFilter = new TokenFilter("Test", "junit");
+	private final DeclarationFilter declarationFilter = new DeclarationFilter("[A-z]*Adapter|[A-z]*2[A-z]+|[A-z]+To[A-Z][A-z]*", TypeDeclaration.Kind.CLASS); // Like regexFilter
+	private final SketchyCharactersFilter sketchyFilter = new SketchyCharactersFilter();
+
+
+	@Setup
+	public void setUp() {
+		corpus = new SyntheticCorpus(FILES, SEED);
+		texts = new String[FILES];
+		for (int i = 0; i < FILES; i++) texts[i] = new String(corpus.getFile(i), StandardCharsets.UTF_8);
+		content = new FileContent(Main.keywordPlan);
+		stages = new StageMetrics(new Metrics(null, null, 1), Main.categoryFilters); // Not written anywhere
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void regexFilter(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) {
+			byte[] file = corpus.getFile(i);
+			content.reset(file, 0, file.length);
+			blackhole.consume(regexFilter.checkMatch(content));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void keywordFilter(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) {
+			byte[] file = corpus.getFile(i);
+			content.reset(file, 0, file.length);
+			blackhole.consume(keywordFilter.checkMatch(content));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void keywordFilterOnText(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) blackhole.consume(keywordFilter.checkMatch(texts[i]));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void tokenFilter(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) {
+			byte[] file = corpus.getFile(i);
+			content.reset(file, 0, file.length);
+			blackhole.consume(tokenFilter.checkMatch(content));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void declarationFilter(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) {
+			byte[] file = corpus.getFile(i);
+			content.reset(file, 0, file.length);
+			blackhole.consume(declarationFilter.checkMatch(content));
+		}
+	}
+
+	/**
+	 * Tokenizing and finding declarations in every file, which the token and declaration filters only do for files that pass their keyword checks.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void declarations(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) {
+			byte[] file = corpus.getFile(i);
+			content.reset(file, 0, file.length);
+			blackhole.consume(content.getDeclarations());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void sketchyCharactersFilter(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) {
+			byte[] file = corpus.getFile(i);
+			content.reset(file, 0, file.length);
+			blackhole.consume(sketchyFilter.checkMatch(content));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void sketchyCharactersFilterOnText(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) blackhole.consume(sketchyFilter.checkMatch(texts[i]));
+	}
+
+	/**
+	 * The prefilter and then every category in order, until one matches, exactly as every loaded blob goes through them.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public void categoryChain(Blackhole blackhole) {
+		for (int i = 0; i < FILES; i++) {
+			byte[] file = corpus.getFile(i);
+			content.reset(file, 0, file.length);
+			String category = null;
+			if (Main.preFilter == null || Main.preFilter.checkMatch(content)) {
+				category = Main.checkAgainstCategories(content, stages);
+			}
+			blackhole.consume(category);
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.w1ljid.projectdownloader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link IgnoreList#isIgnored(String)} on a list of the given size, for names that are on it and names that aren't.
+ * The journal is written directly and then opened, so that most names end up in the segment file, like they do after a few runs.
+ * Add "-p size=10000000" for the size of a long crawl; setting that up takes a while.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IgnoreListBenchmark {
+
+	private static final int LOOKUPS = 1 << 16;
+
+	@Param({"100000", "1000000"})
+	int size;
+
+	private File directory;
+	private IgnoreList ignoreList;
+	private String[] present;
+	private String[] absent;
+
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("ignore-list-benchmark").toFile();
+		File journal = new File(directory, "ignored.txt");
+		try (BufferedWriter w = Files.newBufferedWriter(journal.toPath(), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < size; i++) {
+				w.write(name(i));
+				w.write('\n');
+			}
+		}
+		ignoreList = new IgnoreList(journal);
+		ignoreList.initialize();
+
+		present = new String[LOOKUPS];
+		absent = new String[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			present[i] = name((int) ((i * 0x9E3779B1L & 0xFFFFFFFFL) % size));
+			absent[i] = name(size + i);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		ignoreList.close();
+		FileUtils.delete(directory, FileUtils.RECURSIVE);
+	}
+
+
+	@Benchmark
+	public boolean isIgnoredHit(Cursor cursor) {
+		return ignoreList.isIgnored(present[cursor.next++ & (LOOKUPS - 1)]);
+	}
+
+	@Benchmark
+	public boolean isIgnoredMiss(Cursor cursor) {
+		return ignoreList.isIgnored(absent[cursor.next++ & (LOOKUPS - 1)]);
+	}
+
+
+	/**
+	 * A repository name like the ones GitHub has.
+	 */
+	private static String name(int number) {
+		return "owner" + (number * 7919 % 100_003) + "/project-" + Integer.toString(number, 36);
+	}
+
+}
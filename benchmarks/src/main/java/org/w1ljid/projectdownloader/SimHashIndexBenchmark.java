@@ -0,0 +1,123 @@
+package org.w1ljid.projectdownloader;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w1ljid.projectdownloader.matching.SimHashIndex;
+
+/**
+ * {@link SimHashIndex} holding the given number of random fingerprints: looking up near-duplicates of fingerprints in it, looking up ones
+ * that have none, and adding more. Random fingerprints spread evenly over the buckets, so this is the best case; real files cluster more.
+ * Adding is measured a batch at a time on a freshly filled index, since adding for the whole iteration would keep growing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class SimHashIndexBenchmark {
+
+	private static final int LOOKUPS = 1 << 16;
+	private static final int INSERTS = 100_000;
+
+	@Param({"10000000"})
+	int size;
+
+	@Param({"3"})
+	int maxDistance;
+
+	private SimHashIndex index;
+	private long[] near;
+	private long[] absent;
+
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	/**
+	 * A full index of its own for adding to, filled again before every iteration.
+	 */
+	@State(Scope.Thread)
+	public static class Growing {
+		SimHashIndex index;
+		long[] added;
+
+		@Setup(Level.Iteration)
+		public void setUp(SimHashIndexBenchmark benchmark) {
+			index = filled(benchmark.size, benchmark.maxDistance);
+			added = fingerprints(INSERTS, 2);
+		}
+	}
+
+
+	@Setup
+	public void setUp() {
+		index = filled(size, maxDistance);
+
+		// Fingerprints of the index, with up to maxDistance bits flipped
+		SplittableRandom random = new SplittableRandom(1);
+		long[] stored = fingerprints(size, 0);
+		near = new long[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			long fingerprint = stored[random.nextInt(size)];
+			for (int flips = random.nextInt(maxDistance + 1); flips > 0; flips--) fingerprint ^= 1L << random.nextInt(64);
+			near[i] = fingerprint;
+		}
+		absent = fingerprints(LOOKUPS, 1);
+	}
+
+
+	@Benchmark
+	public boolean containsNearHit(Cursor cursor) {
+		return index.containsNear(near[cursor.next++ & (LOOKUPS - 1)]);
+	}
+
+	@Benchmark
+	public boolean containsNearMiss(Cursor cursor) {
+		return index.containsNear(absent[cursor.next++ & (LOOKUPS - 1)]);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	@OperationsPerInvocation(INSERTS)
+	public int add(Growing growing) {
+		for (long fingerprint : growing.added) growing.index.add(fingerprint);
+		return growing.index.size();
+	}
+
+
+	private static SimHashIndex filled(int size, int maxDistance) {
+		SimHashIndex index = new SimHashIndex(maxDistance);
+		for (long fingerprint : fingerprints(size, 0)) index.add(fingerprint);
+		return index;
+	}
+
+	/**
+	 * Random fingerprints, the same for the same seed. Different seeds practically never come within a few bits of each other.
+	 */
+	private static long[] fingerprints(int count, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		long[] fingerprints = new long[count];
+		for (int i = 0; i < count; i++) fingerprints[i] = random.nextLong();
+		return fingerprints;
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.w1ljid.projectdownloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w1ljid.projectdownloader.storage.LooseFileStore;
+import org.w1ljid.projectdownloader.storage.PackArchive;
+import org.w1ljid.projectdownloader.storage.WriteBehindStore;
+
+/**
+ * Storing samples, as loose files through {@link FileLibrary} and appended to a {@link PackArchive}, and the label cleaning loose files are named with.
+ * {@link WriteBehindStore} is measured as the thread finding samples sees it: queueing them, which only waits once its writer falls behind.
+ * The stores write into a temporary directory that grows over the run, like a real output directory does. Scores are per sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+	private static final int FILES = 2000;
+	private static final String[] CATEGORIES = { "Adapter", "Builder", "State", "Strategy" };
+
+	private SyntheticCorpus corpus;
+	private String[] labels;
+	private File directory;
+	private LooseFileStore looseFiles;
+	private PackArchive archive;
+	private WriteBehindStore writeBehind;
+	private FileLibrary fileLib;
+	private int next;
+	private long stored;
+
+
+	@Setup
+	public void setUp() throws IOException {
+		corpus = new SyntheticCorpus(FILES, FilterBenchmark.SEED);
+		directory = Files.createTempDirectory("storage-benchmark").toFile();
+		fileLib = new FileLibrary(new File(directory, "loose").getPath());
+		looseFiles = new LooseFileStore(fileLib, ".java");
+		archive = new PackArchive(new File(directory, "archive"), 256L << 20);
+		archive.initialize();
+		writeBehind = new WriteBehindStore(new LooseFileStore(new FileLibrary(new File(directory, "write-behind").getPath()), ".java"), 1, 16L << 20, null);
+		writeBehind.initialize();
+
+		labels = new String[FILES];
+		for (int i = 0; i < FILES; i++) labels[i] = corpus.getRepository(i) + " " + fileLib.suggestLabel(corpus.getPath(i));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		archive.close();
+		writeBehind.close();
+		FileUtils.delete(directory, FileUtils.RECURSIVE);
+	}
+
+
+	@Benchmark
+	public String cleanLabel() {
+		return FileLibrary.cleanLabel(labels[next++ % FILES]);
+	}
+
+	@Benchmark
+	public String suggestLabel() {
+		return fileLib.suggestLabel(corpus.getPath(next++ % FILES));
+	}
+
+	@Benchmark
+	public String looseFileStore() throws IOException {
+		int i = next++ % FILES;
+		byte[] file = corpus.getFile(i);
+		return looseFiles.store(CATEGORIES[i % CATEGORIES.length], corpus.getRepository(i), corpus.getPath(i), contentId(stored++), file, 0, file.length);
+	}
+
+	@Benchmark
+	public String packArchiveStore() throws IOException {
+		int i = next++ % FILES;
+		byte[] file = corpus.getFile(i);
+		return archive.store(CATEGORIES[i % CATEGORIES.length], corpus.getRepository(i), corpus.getPath(i), contentId(stored++), file, 0, file.length);
+	}
+
+	@Benchmark
+	public String writeBehindStore() throws IOException {
+		int i = next++ % FILES;
+		byte[] file = corpus.getFile(i);
+		return writeBehind.store(CATEGORIES[i % CATEGORIES.length], corpus.getRepository(i), corpus.getPath(i), contentId(stored++), file, 0, file.length);
+	}
+
+
+	/**
+	 * A unique id that looks like a blob's, so that every store writes a new sample.
+	 */
+	private static String contentId(long number) {
+		return String.format("%040x", number * 0x9E3779B97F4A7C15L);
+	}
+
+}
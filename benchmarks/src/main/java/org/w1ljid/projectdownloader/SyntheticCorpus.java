@@ -0,0 +1,146 @@
+package org.w1ljid.projectdownloader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Java-looking source files for the benchmarks, generated from a seed so that every run sees the same corpus.
+ * Sizes follow a log-normal distribution like the one of Java files on GitHub (median about 2.5 KiB, a long tail up to 1 MiB).
+ * Some files declare classes the category filters look for, some are unit tests the prefilter rejects, and a few contain
+ * non-ASCII text or control characters, in roughly the proportions seen while downloading.
+ */
+public class SyntheticCorpus {
+
+	private static final double MEDIAN_SIZE = 2500;
+	private static final double SIZE_SIGMA = 1.1;
+	private static final int MIN_SIZE = 200;
+	private static final int MAX_SIZE = 1 << 20;
+
+	private static final String[] WORDS = {
+		"User", "Order", "Account", "Event", "Message", "Stream", "File", "Cache", "Request", "Response", "Session", "Config",
+		"Node", "Tree", "Graph", "Pipe", "Socket", "Report", "Invoice", "Payment", "Shape", "Color", "Player", "Game", "Item",
+	};
+	private static final String[] SUFFIXES = { "Service", "Manager", "Util", "Impl", "Controller", "Repository", "Handler", "Factory", "Helper", "" };
+	private static final String[] IMPORTS = {
+		"java.util.List", "java.util.Map", "java.util.ArrayList", "java.util.HashMap", "java.io.IOException", "java.io.File",
+		"java.util.concurrent.ConcurrentHashMap", "java.util.function.Function", "java.util.stream.Collectors", "java.time.Instant",
+	};
+	private static final String[] TYPES = { "int", "long", "String", "boolean", "double", "List<String>", "Map<String, Integer>", "Object" };
+
+	private final byte[][] files;
+	private final String[] repositories;
+	private final String[] paths;
+	private final long totalBytes;
+
+
+	public SyntheticCorpus(int count, long seed) {
+		Random random = new Random(seed);
+		files = new byte[count][];
+		repositories = new String[count];
+		paths = new String[count];
+		long total = 0;
+		for (int i = 0; i < count; i++) {
+			String className = className(random);
+			files[i] = file(random, className).getBytes(StandardCharsets.UTF_8);
+			repositories[i] = word(random).toLowerCase() + "-dev/" + word(random).toLowerCase() + "-" + word(random).toLowerCase();
+			paths[i] = "src/main/java/com/" + word(random).toLowerCase() + "/" + word(random).toLowerCase() + "/" + className + ".java";
+			total += files[i].length;
+		}
+		totalBytes = total;
+	}
+
+
+	public int size() { return files.length; }
+
+	/** The UTF-8 bytes of a file. */
+	public byte[] getFile(int index) { return files[index]; }
+
+	/** A repository name like "owner/name" for a file. */
+	public String getRepository(int index) { return repositories[index]; }
+
+	/** A path within the repository for a file. */
+	public String getPath(int index) { return paths[index]; }
+
+	public long getTotalBytes() { return totalBytes; }
+
+
+	private static String word(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static String className(Random random) {
+		double kind = random.nextDouble();
+		String base = word(random) + (random.nextBoolean() ? word(random) : "");
+		if (kind < 0.03) return base + "Adapter";
+		if (kind < 0.05) return word(random) + "To" + word(random);
+		if (kind < 0.09) return base + "Builder";
+		if (kind < 0.10) return base + "Decorator";
+		if (kind < 0.105) return "Null" + base;
+		if (kind < 0.125) return base + "State";
+		if (kind < 0.14) return base + "Strategy";
+		if (kind < 0.19) return base + "Test";
+		return base + SUFFIXES[random.nextInt(SUFFIXES.length)];
+	}
+
+	private static String file(Random random, String className) {
+		int targetSize = (int) Math.max(MIN_SIZE, Math.min(MAX_SIZE, MEDIAN_SIZE * Math.exp(random.nextGaussian() * SIZE_SIGMA)));
+		boolean test = className.endsWith("Test");
+		boolean isAbstract = !test && random.nextDouble() < 0.06;
+
+		StringBuilder sb = new StringBuilder(targetSize + 256);
+		if (random.nextDouble() < 0.3) {
+			sb.append("/*\n * Copyright (c) ").append(2008 + random.nextInt(18)).append(" ").append(word(random)).append(" contributors\n")
+				.append(" * Licensed under the Apache License, Version 2.0 (the \"License\");\n * you may not use this file except in compliance with the License.\n */\n");
+		}
+		sb.append("package com.").append(word(random).toLowerCase()).append(';').append("\n\n");
+		for (int i = random.nextInt(8); i > 0; i--) {
+			sb.append("import ").append(IMPORTS[random.nextInt(IMPORTS.length)]).append(";\n");
+		}
+		if (test) sb.append("import org.junit.Test;\nimport static org.junit.Assert.assertEquals;\n");
+		sb.append('\n');
+
+		sb.append("/**\n * ").append(word(random)).append(" handling for the ").append(word(random).toLowerCase()).append(" module.\n */\n");
+		sb.append("public ").append(isAbstract ? "abstract class " : "class ").append(className);
+		if (className.startsWith("Null") || random.nextDouble() < 0.2) sb.append(" implements ").append(word(random));
+		else if (random.nextDouble() < 0.15) sb.append(" extends ").append(word(random)).append("Base");
+		sb.append(" {\n\n");
+
+		for (int i = random.nextInt(5); i > 0; i--) {
+			sb.append("\tprivate ").append(TYPES[random.nextInt(TYPES.length)]).append(' ').append(word(random).toLowerCase()).append(i).append(";\n");
+		}
+		sb.append('\n');
+
+		int method = 0;
+		while (sb.length() < targetSize) {
+			method++;
+			if (random.nextDouble() < 0.4) sb.append("\t/**\n\t * Returns the ").append(word(random).toLowerCase()).append(" for the given input.\n\t */\n");
+			if (test) {
+				sb.append("\t@Test\n\tpublic void test").append(word(random)).append(method).append("() {\n");
+			} else if (isAbstract && random.nextDouble() < 0.2) {
+				sb.append("\tabstract ").append(TYPES[random.nextInt(TYPES.length)]).append(" compute").append(method).append("(int value);\n\n");
+				continue;
+			} else {
+				String modifiers = random.nextDouble() < 0.7 ? "public " : "private ";
+				if (random.nextDouble() < 0.1) modifiers += "final ";
+				sb.append('\t').append(modifiers).append(TYPES[random.nextInt(TYPES.length)]).append(" get").append(word(random)).append(method).append("(int value) {\n");
+			}
+			for (int line = 2 + random.nextInt(10); line > 0; line--) {
+				double kind = random.nextDouble();
+				if (kind < 0.3) sb.append("\t\tint local").append(line).append(" = value * ").append(random.nextInt(1000)).append(" + ").append(line).append(";\n");
+				else if (kind < 0.5) sb.append("\t\tif (value > ").append(random.nextInt(100)).append(") {\n\t\t\treturn null;\n\t\t}\n");
+				else if (kind < 0.7) sb.append("\t\t// ").append(word(random)).append(' ').append(word(random).toLowerCase()).append(" is checked here\n");
+				else if (kind < 0.85) sb.append("\t\tSystem.out.println(\"").append(word(random)).append(": \" + value);\n");
+				else sb.append("\t\tfor (int i = 0; i < value; i++) {\n\t\t\tvalue += i;\n\t\t}\n");
+			}
+			if (test) sb.append("\t\tassertEquals(").append(random.nextInt(10)).append(", value);\n");
+			sb.append("\t\treturn ").append(test ? "" : "value").append(";\n\t}\n\n");
+		}
+
+		double oddity = random.nextDouble();
+		if (oddity < 0.02) sb.append("\t// Grüße, こんにちは, Привет\n"); // Non-ASCII, but allowed
+		else if (oddity < 0.025) sb.append("\t// \u0007 bell\n"); // Rejected by SketchyCharactersFilter
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+}
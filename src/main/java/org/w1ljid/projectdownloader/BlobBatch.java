@@ -0,0 +1,157 @@
+package org.w1ljid.projectdownloader;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Tree entries whose blobs are processed in parallel. The tree walk fills the batch, then every thread helping with it takes the next
+ * unprocessed entry until none are left, so that a few large blobs don't hold up the rest.
+ * The thread that filled the batch always helps, which means a batch finishes even while the helper pool is busy with other repositories.
+ * ObjectReaders aren't thread-safe, so every other helper reads through its own.
+ */
+class BlobBatch {
+
+	private static final int MIN_ENTRIES_PER_HELPER = 32; // Fewer aren't worth handing to another thread
+
+	private final ObjectId[] blobIds;
+	private final String[] paths;
+	private final Set<ObjectId> distinct = new HashSet<>();
+	private int size;
+
+	// Set up anew by every process() call
+	private AtomicInteger next;
+	private final Object lock = new Object();
+	private int running;
+	private boolean closed; // No more helpers may start
+	private Exception failure;
+
+
+	/**
+	 * What to do with every entry. Called from several threads at the same time.
+	 */
+	interface Processor {
+		void process(ObjectReader reader, ObjectId blobId, String path) throws Exception;
+	}
+
+
+	BlobBatch(int capacity) {
+		blobIds = new ObjectId[capacity];
+		paths = new String[capacity];
+	}
+
+
+	void add(AnyObjectId blobId, String path) {
+		ObjectId id = blobId.toObjectId();
+		blobIds[size] = id;
+		paths[size] = path;
+		distinct.add(id);
+		size++;
+	}
+
+	/**
+	 * Whether a blob was added since the last {@link #clear()}.
+	 */
+	boolean contains(AnyObjectId blobId) {
+		return distinct.contains(blobId);
+	}
+
+	int size() { return size; }
+
+	boolean isFull() { return size == blobIds.length; }
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			blobIds[i] = null;
+			paths[i] = null;
+		}
+		distinct.clear();
+		size = 0;
+	}
+
+	/**
+	 * Processes every entry, and returns once all are done.
+	 * @param reader Used by the calling thread.
+	 * @param helpers Pool of threads to help out, or null to process everything on the calling thread.
+	 * @param maxHelpers How many of the pool's threads may help.
+	 * @throws Exception The first one the processor threw. Entries not yet started when it did are left unprocessed.
+	 */
+	void process(Repository repository, ObjectReader reader, ExecutorService helpers, int maxHelpers, Processor processor) throws Exception {
+		synchronized (lock) { // Helpers get to see the entries by taking the lock. One still queued from an earlier batch just helps with this one.
+			next = new AtomicInteger();
+			closed = false;
+			failure = null;
+		}
+
+		int extraHelpers = helpers == null ? 0 : Math.min(maxHelpers, size / MIN_ENTRIES_PER_HELPER - 1);
+		for (int i = 0; i < extraHelpers; i++) {
+			try {
+				helpers.execute(() -> help(repository, processor));
+			} catch (RejectedExecutionException e) {
+				break; // Shutting down, the caller finishes on its own
+			}
+		}
+
+		try {
+			work(reader, processor);
+		} catch (Exception e) {
+			fail(e);
+		}
+
+		// Helpers still waiting in the pool's queue won't be needed anymore, the running ones have to finish before the repository is closed
+		boolean interrupted = false;
+		synchronized (lock) {
+			closed = true;
+			while (running > 0) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		if (failure != null) throw failure;
+	}
+
+
+	private void help(Repository repository, Processor processor) {
+		synchronized (lock) {
+			if (closed) return;
+			running++;
+		}
+		try (ObjectReader reader = repository.newObjectReader()) {
+			work(reader, processor);
+		} catch (Exception e) {
+			fail(e);
+		} finally {
+			synchronized (lock) {
+				running--;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void work(ObjectReader reader, Processor processor) throws Exception {
+		int i;
+		while ((i = next.getAndIncrement()) < size) {
+			processor.process(reader, blobIds[i], paths[i]);
+		}
+	}
+
+	private void fail(Exception e) {
+		next.set(size); // Stops the other helpers after their current entry
+		synchronized (lock) {
+			if (failure == null) failure = e;
+		}
+	}
+
+}
@@ -0,0 +1,427 @@
+package org.w1ljid.projectdownloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.w1ljid.projectdownloader.util.BloomFilter;
+import org.w1ljid.projectdownloader.util.SortedRecordFile;
+
+/**
+ * Remembers which blobs were already classified, across repositories and runs, so that a blob shared by many repositories is only read and filtered once.
+ * Outcomes are kept in sorted, memory-mapped segment files in a directory, with a Bloom filter in front of them so that unknown blobs (the usual case) rarely touch the segments at all.
+ * New outcomes collect in a small in-memory tail, which is written out as a new segment once it grows large enough, or on {@link #flush()}. Outcomes still in the tail are lost on a crash, which only means those blobs get classified again.
+ * Segments of about the same size are merged in the background, a few at a time, so every outcome is rewritten only a logarithmic number of times and lookups only have a few segments to search.
+ * A segment is named after the range of flushed segments it holds, so that one left behind by an interrupted merge is recognized as covered by the merged one.
+ * The index is only valid for the filters it was built with: it remembers a hash of their configuration, and starts over empty when it changes.
+ * Safe to use from multiple threads once initialized.
+ */
+public class BlobIndex implements AutoCloseable {
+
+	/** The blob didn't match any category. */
+	public static final byte REJECTED = 0;
+	/** The blob matched a category and was stored. */
+	public static final byte STORED = 1;
+	/** The blob matched a category, but was too similar to an already stored file. */
+	public static final byte NEAR_DUPLICATE = 2;
+
+	private static final int KEY_LENGTH = Constants.OBJECT_ID_LENGTH;
+	private static final int RECORD_LENGTH = KEY_LENGTH + 1;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".idx";
+	private static final String CONFIGURATION_FILE = "configuration.sha1";
+	private static final int MERGE_FACTOR = 4; // How many segments of about the same size are merged into one
+
+	private final File directory;
+	private final long expectedBlobs;
+	private final int tailLimit;
+	private final String configuration;
+
+	private final Map<ObjectId, Byte> tail = new ConcurrentHashMap<>();
+	private volatile Segment[] segments = new Segment[0]; // Newest first, replaced as a whole
+	private BloomFilter bloom;
+	private int nextSegmentNumber;
+	private boolean cleared;
+
+	private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "BlobIndex merger");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicBoolean merging = new AtomicBoolean();
+
+	private static final ThreadLocal<byte[]> keyBuffers = ThreadLocal.withInitial(() -> new byte[KEY_LENGTH]);
+
+
+	/**
+	 * A segment file, and the numbers of the oldest and the newest flushed segment merged into it.
+	 */
+	private static class Segment {
+		final SortedRecordFile file;
+		final int oldest;
+		final int newest;
+
+		Segment(SortedRecordFile file, int oldest, int newest) {
+			this.file = file;
+			this.oldest = oldest;
+			this.newest = newest;
+		}
+	}
+
+
+	/**
+	 * @param directory Where the index is stored. Created if missing.
+	 * @param expectedBlobs How many blobs the index is expected to hold at most, used to size the Bloom filter. Going over it only makes lookups slower.
+	 * @param tailLimit How many outcomes are kept in memory before they are written to a new segment.
+	 * @param configuration Describes everything the outcomes depend on, like the filters. An index built with a different one is discarded.
+	 */
+	public BlobIndex(File directory, long expectedBlobs, int tailLimit, String configuration) {
+		this.directory = directory;
+		this.expectedBlobs = expectedBlobs;
+		this.tailLimit = tailLimit;
+		this.configuration = configuration;
+	}
+
+
+	public synchronized void initialize() throws IOException {
+		Files.createDirectories(directory.toPath());
+
+		// Leftovers of an interrupted segment write.
+		try (DirectoryStream<Path> temps = Files.newDirectoryStream(directory.toPath(), "*.tmp")) {
+			for (Path temp : temps) Files.delete(temp);
+		}
+
+		String hash = hash(configuration);
+		Path configurationPath = directory.toPath().resolve(CONFIGURATION_FILE);
+		String previousHash = Files.exists(configurationPath) ? new String(Files.readAllBytes(configurationPath), StandardCharsets.US_ASCII).trim() : null;
+		if (!hash.equals(previousHash)) {
+			// Built with other filters, or by a version that didn't record them. Its outcomes can't be trusted.
+			try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory.toPath())) {
+				for (Path path : paths) {
+					cleared |= path.getFileName().toString().startsWith(SEGMENT_PREFIX);
+					Files.delete(path);
+				}
+			}
+			Path temp = directory.toPath().resolve(CONFIGURATION_FILE + ".tmp");
+			Files.write(temp, (hash + "\n").getBytes(StandardCharsets.US_ASCII));
+			Files.move(temp, configurationPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		List<Path> paths = new ArrayList<>();
+		List<int[]> ranges = new ArrayList<>();
+		try (DirectoryStream<Path> segmentPaths = Files.newDirectoryStream(directory.toPath(), SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : segmentPaths) {
+				int[] range = segmentRange(path);
+				if (range != null) {
+					paths.add(path);
+					ranges.add(range);
+				}
+			}
+		}
+		List<Segment> opened = new ArrayList<>();
+		for (int i = 0; i < paths.size(); i++) {
+			if (isCovered(ranges.get(i), ranges)) {
+				// An input of a merge, left behind because it was still mapped when the merge tried to delete it. Not mapped yet this time.
+				Files.delete(paths.get(i));
+			} else {
+				opened.add(new Segment(SortedRecordFile.open(paths.get(i)), ranges.get(i)[0], ranges.get(i)[1]));
+			}
+		}
+		opened.sort(Comparator.comparingInt((Segment segment) -> segment.newest).reversed());
+		for (Segment segment : opened) nextSegmentNumber = Math.max(nextSegmentNumber, segment.newest + 1);
+		segments = opened.toArray(new Segment[0]);
+
+		bloom = BloomFilter.open(directory.toPath().resolve("bloom.bin"), expectedBlobs);
+		if (bloom.isFresh()) {
+			// The filter is new or was resized, fill it from the segments.
+			byte[] record = new byte[RECORD_LENGTH];
+			for (Segment segment : segments) {
+				for (long i = 0; i < segment.file.size(); i++) {
+					segment.file.read(i, record, 0);
+					addToBloom(record);
+				}
+			}
+			bloom.force();
+		}
+
+		requestMerge();
+	}
+
+	/**
+	 * @return The numbers of the oldest and newest flushed segment in the file, from names like "segment-7.idx" or "segment-4-7.idx", or null if it isn't a segment.
+	 */
+	private static int[] segmentRange(Path path) {
+		String name = path.getFileName().toString();
+		String range = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+		int dash = range.indexOf('-');
+		try {
+			if (dash < 0) {
+				int number = Integer.parseInt(range);
+				return new int[] { number, number };
+			}
+			return new int[] { Integer.parseInt(range.substring(0, dash)), Integer.parseInt(range.substring(dash + 1)) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static boolean isCovered(int[] range, List<int[]> ranges) {
+		for (int[] other : ranges) {
+			if (other != range && other[0] <= range[0] && range[1] <= other[1]) return true;
+		}
+		return false;
+	}
+
+	private Path segmentPath(int oldest, int newest) {
+		return directory.toPath().resolve(SEGMENT_PREFIX + (oldest == newest ? "" + oldest : oldest + "-" + newest) + SEGMENT_SUFFIX);
+	}
+
+	private static String hash(String configuration) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return ObjectId.fromRaw(digest.digest(configuration.getBytes(StandardCharsets.UTF_8))).name();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is always available", e);
+		}
+	}
+
+
+	/**
+	 * Whether {@link #initialize()} threw away the outcomes of an earlier run, because they were found with another configuration.
+	 */
+	public synchronized boolean wasCleared() { return cleared; }
+
+	/**
+	 * Number of outcomes in the index. Counts blobs that appear in several segments more than once.
+	 */
+	public long size() {
+		long size = tail.size();
+		for (Segment segment : segments) size += segment.file.size();
+		return size;
+	}
+
+	/**
+	 * @return The blob's recorded outcome, or -1 if it wasn't classified yet.
+	 */
+	public int lookup(AnyObjectId blobId) {
+		byte[] key = keyBuffers.get();
+		blobId.copyRawTo(key, 0);
+		ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+		if (!bloom.mightContain(keyBuffer.getLong(0), keyBuffer.getLong(8))) return -1;
+
+		Byte outcome = tail.get(blobId);
+		if (outcome != null) return outcome;
+
+		for (Segment segment : segments) {
+			long index = segment.file.find(key);
+			if (index >= 0) return segment.file.get(index, KEY_LENGTH);
+		}
+		return -1;
+	}
+
+	public boolean contains(AnyObjectId blobId) {
+		return lookup(blobId) >= 0;
+	}
+
+	/**
+	 * Remembers the outcome of classifying a blob.
+	 */
+	public synchronized void record(AnyObjectId blobId, byte outcome) throws IOException {
+		tail.put(blobId.toObjectId(), outcome);
+
+		byte[] key = new byte[KEY_LENGTH];
+		blobId.copyRawTo(key, 0);
+		addToBloom(key);
+
+		if (tail.size() >= tailLimit) flush();
+	}
+
+	/**
+	 * Writes every outcome still in memory to a new segment. Merging it with others happens in the background.
+	 */
+	public synchronized void flush() throws IOException {
+		if (tail.isEmpty()) return;
+
+		ObjectId[] ids = tail.keySet().toArray(new ObjectId[0]);
+		Arrays.sort(ids);
+
+		int number = nextSegmentNumber++;
+		byte[] record = new byte[RECORD_LENGTH];
+		SortedRecordFile file;
+		try (SortedRecordFile.Writer writer = new SortedRecordFile.Writer(segmentPath(number, number), KEY_LENGTH, RECORD_LENGTH)) {
+			for (ObjectId id : ids) {
+				id.copyRawTo(record, 0);
+				record[KEY_LENGTH] = tail.get(id);
+				writer.append(record, 0);
+			}
+			file = writer.finish();
+		}
+		bloom.force();
+
+		Segment[] current = segments;
+		Segment[] newSegments = new Segment[current.length + 1];
+		newSegments[0] = new Segment(file, number, number);
+		System.arraycopy(current, 0, newSegments, 1, current.length);
+		segments = newSegments; // Published before the tail is cleared, so lookups always find the ids somewhere.
+		for (ObjectId id : ids) tail.remove(id);
+
+		requestMerge();
+	}
+
+
+	private void requestMerge() {
+		if (!merging.compareAndSet(false, true)) return;
+		try {
+			merger.execute(() -> {
+				try {
+					while (mergeOnce()) {
+						// Until no sizes are alike enough
+					}
+				} catch (IOException e) {
+					System.err.println("Failed to merge blob index segments in \"" + directory + "\": " + e);
+				} finally {
+					merging.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			merging.set(false); // Closing
+		}
+	}
+
+	/**
+	 * Merges the newest run of {@link #MERGE_FACTOR} consecutive segments that are about the same size, if there is one. Only segments next to each
+	 * other in age are merged, so that the merged one takes their place in the newest-first order. Runs without holding the lock, except to publish.
+	 * @return Whether there was anything to merge.
+	 */
+	private boolean mergeOnce() throws IOException {
+		Segment[] current = segments;
+		int start = -1;
+		for (int i = 0; i + MERGE_FACTOR <= current.length && start < 0; i++) {
+			int tier = tier(current[i]);
+			int j = i + 1;
+			while (j < i + MERGE_FACTOR && tier(current[j]) == tier) j++;
+			if (j == i + MERGE_FACTOR) start = i;
+		}
+		if (start < 0) return false;
+
+		Segment[] inputs = Arrays.copyOfRange(current, start, start + MERGE_FACTOR);
+		Segment merged = merge(inputs);
+
+		synchronized (this) {
+			// Only flush() changed the segments meanwhile, by putting new ones in front
+			Segment[] now = segments;
+			int offset = now.length - current.length;
+			Segment[] replaced = new Segment[now.length - MERGE_FACTOR + 1];
+			System.arraycopy(now, 0, replaced, 0, offset + start);
+			replaced[offset + start] = merged;
+			System.arraycopy(now, offset + start + MERGE_FACTOR, replaced, offset + start + 1, now.length - offset - start - MERGE_FACTOR);
+			segments = replaced;
+		}
+
+		for (Segment input : inputs) {
+			try {
+				Files.deleteIfExists(input.file.getPath());
+			} catch (IOException e) {
+				// Lookups may still have it mapped, which some systems don't allow deleting. The merged segment covers it, so initialize() deletes it next time.
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Segments in the same tier are within a factor of {@link #MERGE_FACTOR} in size: a flushed tail is in tier 0, and merging a run of them makes one in tier 1.
+	 */
+	private int tier(Segment segment) {
+		long size = Math.max(1, segment.file.size() / Math.max(1, tailLimit));
+		int tier = 0;
+		while (size >= MERGE_FACTOR) {
+			size /= MERGE_FACTOR;
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Writes the outcomes of the segments into a new one. Where they disagree, the newest outcome wins.
+	 * @param inputs Consecutive segments, newest first.
+	 */
+	private Segment merge(Segment[] inputs) throws IOException {
+		int oldest = inputs[inputs.length - 1].oldest;
+		int newest = inputs[0].newest;
+
+		// One cursor per segment, ordered by the current key, then by age (newest first).
+		byte[][] current = new byte[inputs.length][RECORD_LENGTH];
+		long[] positions = new long[inputs.length];
+		PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+			int cmp = SortedRecordFile.compareKeys(current[a], 0, current[b], 0, KEY_LENGTH);
+			return cmp != 0 ? cmp : Integer.compare(a, b);
+		});
+		for (int i = 0; i < inputs.length; i++) {
+			if (inputs[i].file.size() > 0) {
+				inputs[i].file.read(0, current[i], 0);
+				queue.add(i);
+			}
+		}
+
+		try (SortedRecordFile.Writer writer = new SortedRecordFile.Writer(segmentPath(oldest, newest), KEY_LENGTH, RECORD_LENGTH)) {
+			byte[] lastKey = new byte[KEY_LENGTH];
+			boolean first = true;
+			while (!queue.isEmpty()) {
+				int i = queue.poll();
+				if (first || SortedRecordFile.compareKeys(lastKey, 0, current[i], 0, KEY_LENGTH) != 0) { // Older duplicates come right after the newest one and are dropped.
+					writer.append(current[i], 0);
+					System.arraycopy(current[i], 0, lastKey, 0, KEY_LENGTH);
+					first = false;
+				}
+				if (++positions[i] < inputs[i].file.size()) {
+					inputs[i].file.read(positions[i], current[i], 0);
+					queue.add(i);
+				}
+			}
+			return new Segment(writer.finish(), oldest, newest);
+		}
+	}
+
+	private void addToBloom(byte[] key) {
+		ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+		bloom.add(keyBuffer.getLong(0), keyBuffer.getLong(8));
+	}
+
+	/**
+	 * Waits for a running merge, and writes the tail.
+	 */
+	@Override
+	public void close() throws IOException {
+		merger.shutdown();
+		try {
+			merger.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.w1ljid.projectdownloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+/**
+ * Bare repositories kept between runs, one per repository name, so that fetching a repository again only transfers the objects that are new.
+ * Each one also remembers the commit last processed from it, as a ref, so that a later run only has to look at the files changed since then.
+ * Every fetch adds a pack file, so once a repository has collected too many, they are repacked into one.
+ * Safe to use from multiple threads. A repository is only handed to one of them at a time, the others wait for it to be released.
+ */
+public class CachedRepositories {
+
+	private static final String PROCESSED_REF = "refs/projectdownloader/processed";
+
+	private final File directory;
+	private final int maxPacks;
+	private final Set<String> inUse = new HashSet<>();
+
+
+	/**
+	 * @param directory Where the repositories are kept. Created if missing.
+	 * @param maxPacks A repository with more pack files than this is repacked by {@link #repackIfNeeded(Repository)}. 0 never repacks.
+	 */
+	public CachedRepositories(File directory, int maxPacks) {
+		this.directory = directory;
+		this.maxPacks = maxPacks;
+	}
+
+
+	public synchronized void initialize() throws IOException {
+		Files.createDirectories(directory.toPath());
+	}
+
+	public File getDirectory() { return directory; }
+
+	/**
+	 * Opens the repository of the given name, created empty if it isn't cached yet. Has to be {@link #release(String)}d after closing it.
+	 */
+	public Repository open(String fullName) throws IOException, InterruptedException {
+		synchronized (this) {
+			while (inUse.contains(fullName)) wait();
+			inUse.add(fullName);
+		}
+
+		try {
+			File gitDir = locate(fullName);
+			Repository repository = new FileRepositoryBuilder()
+				.setGitDir(gitDir)
+				.setBare()
+				.build();
+			if (!new File(gitDir, "HEAD").exists()) repository.create(true);
+			return repository;
+		} catch (IOException | RuntimeException e) {
+			release(fullName);
+			throw e;
+		}
+	}
+
+	public synchronized void release(String fullName) {
+		inUse.remove(fullName);
+		notifyAll();
+	}
+
+	/**
+	 * Repacks an opened repository into a single pack if fetches left it with too many, so that reading an object doesn't have to look through
+	 * all of them. Objects nothing refers to anymore, like the ones a force-push replaced, are dropped after JGit's usual grace period.
+	 * @return How many packs there were, or -1 if the repository didn't need repacking.
+	 */
+	public int repackIfNeeded(Repository repository) throws IOException {
+		if (maxPacks <= 0) return -1;
+		File[] packs = new File(repository.getDirectory(), "objects/pack").listFiles((dir, name) -> name.endsWith(".pack"));
+		if (packs == null || packs.length <= maxPacks) return -1;
+
+		repository.getConfig().setString("gc", null, "prunePackExpire", "now"); // JGit keeps replaced packs for an hour by default, in case others still read them. Nobody else has this one open. Not saved.
+		try {
+			Git.wrap(repository).gc().call();
+		} catch (GitAPIException e) {
+			throw new IOException("Failed to repack \"" + repository.getDirectory() + "\"", e);
+		}
+		return packs.length;
+	}
+
+	/**
+	 * @return The commit last processed from the repository, or null if none was.
+	 */
+	public static ObjectId getProcessed(Repository repository) throws IOException {
+		Ref ref = repository.exactRef(PROCESSED_REF);
+		return ref != null ? ref.getObjectId() : null;
+	}
+
+	/**
+	 * Records that everything in the commit was processed. Only to be called once the files found in it are safely stored.
+	 */
+	public static void setProcessed(Repository repository, AnyObjectId commitId) throws IOException {
+		RefUpdate update = repository.updateRef(PROCESSED_REF);
+		update.setNewObjectId(commitId);
+		update.setForceUpdate(true);
+		RefUpdate.Result result = update.update();
+		if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+			throw new IOException("Failed to record the processed commit: " + result);
+		}
+	}
+
+
+	/**
+	 * Every part of the name becomes a directory, like "owner/name" becoming "owner/name.git". Characters GitHub doesn't allow in names are replaced,
+	 * and parts that would leave the cache are dropped.
+	 */
+	private File locate(String fullName) {
+		File location = directory;
+		for (String part : fullName.split("/")) {
+			StringBuilder cleaned = new StringBuilder(part.length());
+			for (int i = 0; i < part.length(); i++) {
+				char ch = part.charAt(i);
+				boolean allowed = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '-' || ch == '_' || ch == '.';
+				cleaned.append(allowed ? ch : '_');
+			}
+			String name = cleaned.toString();
+			if (!name.isEmpty() && !name.equals(".") && !name.equals("..")) location = new File(location, name);
+		}
+		if (location.equals(directory)) location = new File(directory, "_");
+		return new File(location.getParentFile(), location.getName() + ".git");
+	}
+
+}
@@ -0,0 +1,227 @@
+package org.w1ljid.projectdownloader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.w1ljid.projectdownloader.discovery.Candidate;
+
+/**
+ * Periodically writes down which repositories are being processed, and how far along each one is, so that a run that gets killed can pick up
+ * where it left off. The file is rewritten as a whole, under a temporary name first, so it is always either the old or the new checkpoint.
+ * Before every write the given stores are flushed, so that everything a checkpoint says was processed really was stored.
+ * Safe to use from multiple threads once initialized.
+ */
+public class Checkpoint implements AutoCloseable {
+
+	private final File file;
+	private final long intervalSeconds;
+	private final Flushable[] flushBeforeWrite;
+
+	private final Set<Progress> inFlight = ConcurrentHashMap.newKeySet();
+	private final List<Progress> resumable = new ArrayList<>();
+	private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Checkpoint writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+
+	/**
+	 * How far along a repository is. The tree walk is the same for the same commit, so the number of tree entries that were dealt with is enough to find the place to continue from.
+	 */
+	public static class Progress {
+		private final Candidate candidate;
+		private final String resumeCommit;
+		private final long resumeEntries;
+		private volatile String commit;
+		private volatile long entries;
+
+		Progress(Candidate candidate, String resumeCommit, long resumeEntries) {
+			this.candidate = candidate;
+			this.resumeCommit = resumeCommit;
+			this.resumeEntries = resumeEntries;
+		}
+
+		public Candidate getCandidate() { return candidate; }
+
+		/**
+		 * @return How many tree entries can be skipped when walking the given commit, because an earlier run already dealt with them.
+		 */
+		public long getEntriesToSkip(String commitId) {
+			return commitId.equals(resumeCommit) ? resumeEntries : 0;
+		}
+
+		/**
+		 * Records that the walk of the given commit started.
+		 */
+		public void startCommit(String commitId) {
+			entries = 0;
+			commit = commitId;
+		}
+
+		/**
+		 * Sets how many tree entries were dealt with so far.
+		 */
+		public void setEntries(long entries) {
+			this.entries = entries;
+		}
+	}
+
+
+	/**
+	 * @param intervalSeconds How often the checkpoint is written.
+	 * @param flushBeforeWrite Stores that should be made durable before each write.
+	 */
+	public Checkpoint(File file, long intervalSeconds, Flushable... flushBeforeWrite) {
+		this.file = file;
+		this.intervalSeconds = intervalSeconds;
+		this.flushBeforeWrite = flushBeforeWrite;
+	}
+
+
+	/**
+	 * Reads the previous run's checkpoint, if any, and starts writing new ones.
+	 */
+	public void initialize() throws IOException {
+		resumable.clear();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length != 6) continue;
+				Candidate candidate = new Candidate(unescape(fields[0]), unescape(fields[1]), Long.parseLong(fields[2]), fields[3].isEmpty() ? null : unescape(fields[3]));
+				resumable.add(new Progress(candidate, fields[4].isEmpty() ? null : fields[4], Long.parseLong(fields[5])));
+			}
+		} catch (FileNotFoundException _e) {
+			// First run
+		}
+
+		writer.scheduleWithFixedDelay(() -> {
+			try {
+				write();
+			} catch (IOException e) {
+				System.err.println("Failed to write checkpoint \"" + file + "\": " + e);
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return The repositories that were being processed when the previous run stopped, with how far along they were.
+	 */
+	public List<Progress> getResumable() {
+		return Collections.unmodifiableList(resumable);
+	}
+
+	/**
+	 * Starts tracking a repository.
+	 * @param resumeFrom Its progress from the previous run, or null.
+	 */
+	public Progress begin(Candidate candidate, Progress resumeFrom) {
+		Progress progress = resumeFrom != null
+			? new Progress(candidate, resumeFrom.resumeCommit, resumeFrom.resumeEntries)
+			: new Progress(candidate, null, 0);
+		inFlight.add(progress);
+		return progress;
+	}
+
+	/**
+	 * Stops tracking a repository.
+	 */
+	public void end(Progress progress) {
+		inFlight.remove(progress);
+	}
+
+	/**
+	 * Whether a repository with this name is being processed right now.
+	 */
+	public boolean isInFlight(String fullName) {
+		for (Progress progress : inFlight) {
+			if (progress.candidate.getFullName().equals(fullName)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the checkpoint now.
+	 */
+	public synchronized void write() throws IOException {
+		// Read the progress before flushing, so that everything it counts is flushed.
+		List<String> lines = new ArrayList<>();
+		for (Progress progress : inFlight) {
+			Candidate candidate = progress.candidate;
+			String commit = progress.commit;
+			long entries = progress.entries;
+			lines.add(escape(candidate.getFullName()) + "\t" + escape(candidate.getTransportUrl()) + "\t" + candidate.getSize() + "\t"
+				+ (candidate.getDefaultBranch() != null ? escape(candidate.getDefaultBranch()) : "") + "\t"
+				+ (commit != null ? commit : "") + "\t" + (commit != null ? entries : 0));
+		}
+
+		for (Flushable flushable : flushBeforeWrite) {
+			if (flushable != null) flushable.flush();
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(temp); Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+			for (String line : lines) {
+				w.write(line);
+				w.write('\n');
+			}
+			w.flush();
+			out.getFD().sync();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Stops the periodic writes and writes a final checkpoint.
+	 */
+	@Override
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		write();
+	}
+
+
+	private static String escape(String string) {
+		return string.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String string) {
+		StringBuilder sb = new StringBuilder(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			char ch = string.charAt(i);
+			if (ch == '\\' && i + 1 < string.length()) {
+				char next = string.charAt(++i);
+				sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+			} else {
+				sb.append(ch);
+			}
+		}
+		return sb.toString();
+	}
+
+}
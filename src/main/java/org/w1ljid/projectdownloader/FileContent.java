@@ -0,0 +1,159 @@
+package org.w1ljid.projectdownloader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+
+import org.w1ljid.projectdownloader.matching.JavaTokens;
+import org.w1ljid.projectdownloader.matching.KeywordPlan;
+import org.w1ljid.projectdownloader.matching.TypeDeclaration;
+
+/**
+ * The contents of a single file, as seen by filters. Holds the raw UTF-8 bytes
+ * and only decodes them into a String when a filter actually needs text.
+ * Keyword lookups are answered from one scan over the bytes, which is done the
+ * first time a keyword is asked about. The other views of the file (tokens,
+ * declared types) are likewise computed once, when the first filter asks for
+ * them, and shared by the rest. Not thread-safe, meant
+ * to be used for one file on one thread.
+ */
+public class FileContent {
+
+	private byte[] bytes;
+	private int offset;
+	private int length;
+	private String text;
+
+	private final KeywordPlan plan;
+	private final BitSet foundKeywords = new BitSet();
+	private boolean keywordsScanned;
+
+	private final JavaTokens tokens = new JavaTokens(); // Reused between files
+	private boolean tokenized;
+	private List<TypeDeclaration> declarations;
+
+
+	/**
+	 * Wraps UTF-8 encoded bytes without copying them. The bytes must not change while this object is in use.
+	 * @param plan Keywords to search for together, or null to search every keyword separately.
+	 */
+	public FileContent(byte[] bytes, int offset, int length, KeywordPlan plan) {
+		this(plan);
+		reset(bytes, offset, length);
+	}
+
+	/**
+	 * Creates an empty instance, to be filled with {@link #reset(byte[], int, int)}.
+	 * @param plan Keywords to search for together, or null to search every keyword separately.
+	 */
+	public FileContent(KeywordPlan plan) {
+		this.plan = plan;
+	}
+
+	/**
+	 * @param plan Keywords to search for together, or null to search every keyword separately.
+	 */
+	public FileContent(String text, KeywordPlan plan) {
+		this.text = text;
+		this.plan = plan;
+	}
+
+
+	/**
+	 * Makes this instance represent another file, so that the same one can be reused for every file of a walk. Same rules as the byte constructor.
+	 */
+	public void reset(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		this.text = null;
+		this.keywordsScanned = false;
+		this.tokenized = false;
+		this.declarations = null;
+	}
+
+
+	/**
+	 * Decodes the file on the first call.
+	 */
+	public String getText() {
+		if (text == null) text = new String(bytes, offset, length, StandardCharsets.UTF_8);
+		return text;
+	}
+
+	/**
+	 * Whether the file was given as bytes. Filters that can work on bytes should prefer them when this is true, since asking for them otherwise means encoding the text.
+	 */
+	public boolean hasBytes() { return bytes != null; }
+
+	/**
+	 * The UTF-8 bytes of the file, from {@link #getOffset()} to {@link #getOffset()} + {@link #getLength()}. Must not be modified.
+	 */
+	public byte[] getBytes() {
+		if (bytes == null) {
+			bytes = text.getBytes(StandardCharsets.UTF_8);
+			offset = 0;
+			length = bytes.length;
+		}
+		return bytes;
+	}
+
+	public int getOffset() {
+		getBytes();
+		return offset;
+	}
+
+	public int getLength() {
+		getBytes();
+		return length;
+	}
+
+	/**
+	 * The file's Java tokens, lexed on the first call. Valid until the next {@link #reset(byte[], int, int)}.
+	 */
+	public JavaTokens getTokens() {
+		if (!tokenized) {
+			tokens.tokenize(getText());
+			tokenized = true;
+		}
+		return tokens;
+	}
+
+	/**
+	 * The types the file declares, nested ones included.
+	 */
+	public List<TypeDeclaration> getDeclarations() {
+		if (declarations == null) declarations = TypeDeclaration.find(getTokens());
+		return declarations;
+	}
+
+	/**
+	 * Checks whether the file contains the keyword. Case-sensitive.
+	 */
+	public boolean containsKeyword(String keyword) {
+		int id = plan != null ? plan.idOf(keyword) : -1;
+		if (id < 0) { // Not part of the plan
+			if (text != null) return text.contains(keyword);
+			return contains(bytes, offset, length, keyword.getBytes(StandardCharsets.UTF_8));
+		}
+
+		if (!keywordsScanned) {
+			plan.scan(getBytes(), offset, length, foundKeywords);
+			keywordsScanned = true;
+		}
+		return foundKeywords.get(id);
+	}
+
+	private static boolean contains(byte[] haystack, int offset, int length, byte[] needle) {
+		int last = offset + length - needle.length;
+		outer:
+		for (int i = offset; i <= last; i++) {
+			for (int j = 0; j < needle.length; j++) {
+				if (haystack[i + j] != needle[j]) continue outer;
+			}
+			return true;
+		}
+		return false;
+	}
+
+}
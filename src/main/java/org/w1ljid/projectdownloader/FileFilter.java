@@ -1,5 +1,7 @@
 package org.w1ljid.projectdownloader;
 
+import java.util.Collection;
+
 /**
  * Base class for all file content filters.
  */
@@ -10,4 +12,27 @@ public abstract class FileFilter {
 	 * @return Whether the file passes this filter.
 	 */
 	public abstract boolean checkMatch(String fileContent);
+
+	/**
+	 * Checks a file whose keywords may have already been searched for in a single pass. Filters that look for keywords or contain other filters should override this, the rest can leave it alone.
+	 * @param content Contents of the file.
+	 * @return Whether the file passes this filter.
+	 */
+	public boolean checkMatch(FileContent content) {
+		return checkMatch(content.getText());
+	}
+
+	/**
+	 * Adds every literal string this filter (or any of its inner filters) looks for to the collection.
+	 * @see org.w1ljid.projectdownloader.matching.KeywordPlan
+	 */
+	public void collectKeywords(Collection<String> keywords) {
+	}
+
+	/**
+	 * Describes what the filter matches, inner filters included, like "Keyword[Test, junit]". Filters with the same description give the same results,
+	 * which is how the blob index notices that the filters changed.
+	 */
+	@Override
+	public abstract String toString();
 }
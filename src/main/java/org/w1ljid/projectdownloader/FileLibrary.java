@@ -1,17 +1,21 @@
 package org.w1ljid.projectdownloader;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Random;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.zip.CRC32;
 
 
 /**
- * Manages files with unique names, categorized into subdirectories.
+ * Manages files with unique names, categorized into subdirectories. Safe to
+ * store into from multiple threads.
  */
 public class FileLibrary {
 
@@ -20,9 +24,9 @@ public class FileLibrary {
 	private static final String UNDERSCORIFY_CHARS = " \n-/\\";
 	private static final String SALT_CHARS = "0123456789abcdef";
 
-	private final Random rand = new Random();
 	private final File root;
 	private final int saltLength = 16; // 8 bytes of salt should be enough for everyone.
+	private final Set<String> createdCategories = ConcurrentHashMap.newKeySet(); // Whose directories exist, so they aren't checked for every file
 
 
 	public FileLibrary(String rootPath) {
@@ -44,7 +48,7 @@ public class FileLibrary {
 	}
 
 
-	private static String cleanLabel(String label) {
+	static String cleanLabel(String label) {
 		StringBuilder sb = new StringBuilder();
 
 		for (int i = 0; i < Math.min(256, label.length()); i++) {
@@ -63,7 +67,7 @@ public class FileLibrary {
 		StringBuilder sb = new StringBuilder();
 
 		for (int i = 0; i < saltLength; i++) {
-			sb.append(SALT_CHARS.charAt(rand.nextInt(SALT_CHARS.length())));
+			sb.append(SALT_CHARS.charAt(ThreadLocalRandom.current().nextInt(SALT_CHARS.length())));
 		}
 		sb.append(SEPARATOR);
 		sb.append(label);
@@ -86,13 +90,12 @@ public class FileLibrary {
 	}
 
 	/**
-	 * Reads all of the passed-in byte stream, and writes it to a file in the category's subdirectory, with a name similar to the label given.
+	 * Writes the given range of bytes to a file in the category's subdirectory, with a name similar to the label given.
 	 */
-	public String store(String category, String label, ByteArrayOutputStream bytes, String fileExtension) throws IOException {
+	public String store(String category, String label, byte[] bytes, int offset, int length, String fileExtension) throws IOException {
 		label = cleanLabel(label);
 
-		File categoryDir = new File(root, category);
-		categoryDir.mkdirs();
+		File categoryDir = categoryDirectory(category);
 
 		File file;
 		int tries = 0;
@@ -109,7 +112,7 @@ public class FileLibrary {
 		}
 
 		try (FileOutputStream fos /* XDDDDDDDD */ = new FileOutputStream(file)) {
-			bytes.writeTo(fos);
+			fos.write(bytes, offset, length);
 		} catch (FileNotFoundException e) {
 			throw new IOException("The file we just created did not exist, this should never happen", e);
 		}
@@ -117,6 +120,52 @@ public class FileLibrary {
 		return file.getPath();
 	}
 
+	/**
+	 * Like {@link #store(String, String, byte[], int, int, String)}, but the file is named after an id of its content (such as a blob's hash) instead of a random salt.
+	 * Storing the same content under the same label again does nothing and returns the existing file. The data is written under a temporary name first, so an interrupted store never leaves a partial file behind.
+	 * @param contentId At least 16 characters that identify the content, like a hex object id.
+	 */
+	public String store(String category, String label, byte[] bytes, int offset, int length, String fileExtension, String contentId) throws IOException {
+		return store(category, label, bytes, offset, length, fileExtension, contentId, false);
+	}
+
+	/**
+	 * Like {@link #store(String, String, byte[], int, int, String, String)}.
+	 * @param sync Whether the data is synced to the disk before the file gets its name, so that a system crash can't leave it empty.
+	 */
+	public String store(String category, String label, byte[] bytes, int offset, int length, String fileExtension, String contentId, boolean sync) throws IOException {
+		label = cleanLabel(label);
+
+		File categoryDir = categoryDirectory(category);
+
+		String name = cleanLabel(contentId).substring(0, Math.min(saltLength, contentId.length())) + SEPARATOR + label;
+		if (fileExtension != null) name += fileExtension;
+		File file = new File(categoryDir, name);
+		if (file.exists()) return file.getPath(); // Already stored
+
+		File temp = File.createTempFile(".store-", ".tmp", categoryDir);
+		try {
+			try (FileOutputStream fos = new FileOutputStream(temp)) {
+				fos.write(bytes, offset, length);
+				if (sync) fos.getFD().sync();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+
+		return file.getPath();
+	}
+
+	private File categoryDirectory(String category) throws IOException {
+		File categoryDir = new File(root, category);
+		if (!createdCategories.contains(category)) {
+			Files.createDirectories(categoryDir.toPath()); // Unlike mkdirs, this doesn't fail when another thread is creating the same directory.
+			createdCategories.add(category);
+		}
+		return categoryDir;
+	}
+
 	/**
 	 * Retrieves the location of a persistent file identified by an unique key and extension. The same string will always get the same file. 
 	 */
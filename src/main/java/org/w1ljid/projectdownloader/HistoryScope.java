@@ -0,0 +1,13 @@
+package org.w1ljid.projectdownloader;
+
+/**
+ * Which commits of a repository have their files looked at.
+ */
+public enum HistoryScope {
+	/** Only the latest commit of the selected branch. */
+	TIP,
+	/** Every commit of the selected branch, so that files that were changed or deleted since are found too. */
+	BRANCH,
+	/** Every commit of every branch. */
+	ALL_BRANCHES,
+}
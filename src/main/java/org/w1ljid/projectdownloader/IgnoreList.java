@@ -1,64 +1,371 @@
 package org.w1ljid.projectdownloader;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w1ljid.projectdownloader.util.SortedRecordFile;
 
 /**
  * Manages a set of strings backed by a file. Does not handle line breaks, strings containing such control characters will cause erroneous behavior.
+ * The file is a journal with one string per line, which is only ever appended to. So that startup doesn't have to read all of it, strings are also
+ * kept as 128-bit hashes in a sorted, memory-mapped segment file next to it, named after how much of the journal it covers. Only the strings after
+ * that point are read and kept in memory (the tail). Once the tail grows large enough, it is merged into a new segment in the background.
+ * {@link #flush()} makes everything ignored so far durable, with a single sync for all the threads that flush at the same time.
+ * A line that a crash left half-written is dropped on initialization.
+ * Safe to use from multiple threads once initialized.
  */
 public class IgnoreList implements AutoCloseable {
 
+	private static final int HASH_LENGTH = 16;
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String RUN_SUFFIX = ".run";
+
 	private final File file;
-	private final HashSet<String> ignored = new HashSet<String>();
-	private FileWriter writer;
+	private final int tailLimit;
+
+	private final Set<String> tail = ConcurrentHashMap.newKeySet(); // Strings not in the segment yet
+	private volatile SortedRecordFile segment; // May be null
+	private FileChannel journal;
+
+	private final Object appendLock = new Object(); // Guards pending and appendedCount
+	private final StringBuilder pending = new StringBuilder(); // Ignored, but not yet written to the journal
+	private long appendedCount;
+	private final Object commitLock = new Object(); // Held while writing to the journal
+	private volatile long committedCount;
+
+	private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "IgnoreList compactor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicBoolean compacting = new AtomicBoolean();
+	private final AtomicInteger nextRunNumber = new AtomicInteger(); // Never reused, a run that couldn't be deleted yet may still be mapped
+
+	private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is always available", e);
+		}
+	});
 
 
 	public IgnoreList(File backingFile) {
+		this(backingFile, 100_000);
+	}
+
+	/**
+	 * @param tailLimit How many strings are kept in memory before they are merged into the segment.
+	 */
+	public IgnoreList(File backingFile, int tailLimit) {
 		this.file = backingFile;
+		this.tailLimit = tailLimit;
 	}
 
 
 	public void initialize() throws IOException {
-		ignored.clear();
-		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-			String line;
-			while ((line = reader.readLine()) != null) {
-				ignored.add(line);
+		tail.clear();
+		Path dir = file.getAbsoluteFile().getParentFile().toPath();
+		String prefix = file.getName() + ".";
+
+		// Keep the segment that covers the most of the journal, anything else is left over from an interrupted compaction.
+		Path newest = null;
+		long covered = 0;
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, prefix + "*")) {
+			List<Path> segments = new ArrayList<>();
+			for (Path path : paths) {
+				String name = path.getFileName().toString();
+				if (name.endsWith(".tmp") || name.endsWith(RUN_SUFFIX)) Files.delete(path);
+				else if (name.endsWith(SEGMENT_SUFFIX)) segments.add(path);
+			}
+			for (Path path : segments) {
+				long offset = segmentOffset(path, prefix);
+				if (offset >= covered) {
+					newest = path;
+					covered = offset;
+				}
+			}
+			for (Path path : segments) {
+				if (path != newest) Files.delete(path);
+			}
+		}
+		segment = newest != null ? SortedRecordFile.open(newest) : null;
+
+		journal = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long end = readJournal(Math.min(covered, journal.size()));
+		journal.truncate(end); // Drops a torn last line
+		journal.position(end);
+
+		if (tail.size() >= tailLimit) requestCompaction();
+	}
+
+	private static long segmentOffset(Path path, String prefix) {
+		String name = path.getFileName().toString();
+		try {
+			return Long.parseLong(name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads every complete line after the offset into the tail. If there are too many of them (like when the journal was written by an older version
+	 * that had no segments), they are sorted in runs of tailLimit strings, and merged into a new segment.
+	 * @return The position just after the last complete line.
+	 */
+	private long readJournal(long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long position = offset;
+		long lineEnd = offset;
+		List<SortedRecordFile> runs = new ArrayList<>();
+		long runsEnd = offset;
+
+		while (true) {
+			buffer.clear();
+			int read = journal.read(buffer, position);
+			if (read <= 0) break;
+			for (int i = 0; i < read; i++) {
+				byte b = buffer.get(i);
+				if (b == '\n') {
+					byte[] bytes = line.toByteArray();
+					int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+					String string = new String(bytes, 0, length, StandardCharsets.UTF_8);
+					if (!inSegment(string)) tail.add(string);
+					line.reset();
+					lineEnd = position + i + 1;
+
+					if (tail.size() >= tailLimit) {
+						runs.add(writeRun(tail, nextRunNumber.getAndIncrement()));
+						tail.clear();
+						runsEnd = lineEnd;
+					}
+				} else {
+					line.write(b);
+				}
 			}
-		} catch (FileNotFoundException _e) {
-			file.createNewFile();
+			position += read;
 		}
 
-		writer = new FileWriter(file, true);
+		if (!runs.isEmpty()) {
+			if (segment != null) runs.add(segment);
+			replaceSegment(runs, runsEnd);
+		}
+		return lineEnd;
 	}
 
+	/**
+	 * Makes every string ignored so far durable. Threads that flush at the same time share a single sync.
+	 */
 	public void flush() throws IOException {
-		writer.flush();
+		long target;
+		synchronized (appendLock) {
+			target = appendedCount;
+		}
+		if (committedCount >= target) return;
+
+		synchronized (commitLock) {
+			if (committedCount >= target) return; // Another thread's sync covered this one
+			commit(false);
+		}
+	}
+
+	/**
+	 * Writes everything pending to the journal and syncs it. Must hold the commit lock.
+	 * @return If asked for, a copy of the tail, of which every string is now in the journal.
+	 */
+	private List<String> commit(boolean snapshotTail) throws IOException {
+		String batch;
+		long count;
+		List<String> snapshot;
+		synchronized (appendLock) {
+			batch = pending.toString();
+			pending.setLength(0);
+			count = appendedCount;
+			snapshot = snapshotTail ? new ArrayList<>(tail) : null;
+		}
+
+		ByteBuffer bytes = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+		while (bytes.hasRemaining()) journal.write(bytes);
+		journal.force(false);
+		committedCount = count;
+		return snapshot;
 	}
 
 	@Override
 	public void close() throws IOException {
-		writer.close();
+		compactor.shutdown();
+		try {
+			compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (commitLock) {
+			commit(false);
+			journal.close();
+		}
 	}
 
 
-	public int size() {
-		return ignored.size();
+	public long size() {
+		SortedRecordFile current = segment;
+		return tail.size() + (current != null ? current.size() : 0);
 	}
 
 	public boolean isIgnored(String string) {
-		return ignored.contains(string);
+		return tail.contains(string) || inSegment(string);
+	}
+
+	private boolean inSegment(String string) {
+		SortedRecordFile current = segment;
+		return current != null && current.find(hash(string)) >= 0;
+	}
+
+	/**
+	 * Adds the string to the set. It is written to the journal on the next {@link #flush()}.
+	 */
+	public void ignore(String string) {
+		synchronized (appendLock) {
+			if (isIgnored(string)) return;
+			tail.add(string);
+			pending.append(string).append(System.lineSeparator());
+			appendedCount++;
+		}
+		if (tail.size() >= tailLimit) requestCompaction();
+	}
+
+
+	private void requestCompaction() {
+		if (!compacting.compareAndSet(false, true)) return;
+		try {
+			compactor.execute(() -> {
+				try {
+					compact();
+				} catch (IOException e) {
+					System.err.println("Failed to compact the ignore list \"" + file + "\": " + e);
+				} finally {
+					compacting.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			compacting.set(false); // Closing
+		}
+	}
+
+	/**
+	 * Merges the tail into a new segment, which replaces the old one.
+	 */
+	private void compact() throws IOException {
+		List<String> snapshot;
+		long covered;
+		synchronized (commitLock) {
+			snapshot = commit(true); // The new segment may only claim to cover what is durably in the journal.
+			covered = journal.position();
+		}
+		if (snapshot.isEmpty()) return;
+
+		List<SortedRecordFile> inputs = new ArrayList<>();
+		inputs.add(writeRun(snapshot, nextRunNumber.getAndIncrement()));
+		if (segment != null) inputs.add(segment);
+		replaceSegment(inputs, covered);
+		tail.removeAll(snapshot); // Only after the new segment is published, so that every string can always be found somewhere.
+	}
+
+	/**
+	 * Writes the hashes of the strings to a sorted temporary file.
+	 */
+	private SortedRecordFile writeRun(Collection<String> strings, int number) throws IOException {
+		byte[][] hashes = new byte[strings.size()][];
+		int count = 0;
+		for (String string : strings) hashes[count++] = hash(string);
+		Arrays.sort(hashes, 0, count, (a, b) -> SortedRecordFile.compareKeys(a, 0, b, 0, HASH_LENGTH));
+
+		Path path = siblingPath("run-" + number + RUN_SUFFIX);
+		try (SortedRecordFile.Writer writer = new SortedRecordFile.Writer(path, HASH_LENGTH, HASH_LENGTH)) {
+			for (int i = 0; i < count; i++) {
+				if (i == 0 || SortedRecordFile.compareKeys(hashes[i - 1], 0, hashes[i], 0, HASH_LENGTH) != 0) writer.append(hashes[i], 0);
+			}
+			return writer.finish();
+		}
+	}
+
+	/**
+	 * Merges the files into a new segment covering the journal up to the given position, and publishes it. Deletes the inputs afterwards, where the
+	 * system allows deleting files that are still mapped; elsewhere they are left for the next {@link #initialize()}, which only keeps the newest segment.
+	 */
+	private void replaceSegment(List<SortedRecordFile> inputs, long covered) throws IOException {
+		Path path = siblingPath(covered + SEGMENT_SUFFIX);
+
+		// One cursor per input, ordered by the current hash.
+		byte[][] current = new byte[inputs.size()][HASH_LENGTH];
+		long[] positions = new long[inputs.size()];
+		PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> SortedRecordFile.compareKeys(current[a], 0, current[b], 0, HASH_LENGTH));
+		for (int i = 0; i < inputs.size(); i++) {
+			if (inputs.get(i).size() > 0) {
+				inputs.get(i).read(0, current[i], 0);
+				queue.add(i);
+			}
+		}
+
+		SortedRecordFile merged;
+		try (SortedRecordFile.Writer writer = new SortedRecordFile.Writer(path, HASH_LENGTH, HASH_LENGTH)) {
+			byte[] last = new byte[HASH_LENGTH];
+			boolean first = true;
+			while (!queue.isEmpty()) {
+				int i = queue.poll();
+				if (first || SortedRecordFile.compareKeys(last, 0, current[i], 0, HASH_LENGTH) != 0) {
+					writer.append(current[i], 0);
+					System.arraycopy(current[i], 0, last, 0, HASH_LENGTH);
+					first = false;
+				}
+				if (++positions[i] < inputs.get(i).size()) {
+					inputs.get(i).read(positions[i], current[i], 0);
+					queue.add(i);
+				}
+			}
+			merged = writer.finish();
+		}
+
+		segment = merged;
+		for (SortedRecordFile input : inputs) {
+			if (input.getPath().equals(path)) continue;
+			try {
+				Files.deleteIfExists(input.getPath()); // Lookups that still have it mapped can keep using it.
+			} catch (IOException e) {
+				// Still mapped, on a system that doesn't allow deleting it then
+			}
+		}
+	}
+
+	private Path siblingPath(String suffix) {
+		return new File(file.getAbsoluteFile().getParentFile(), file.getName() + "." + suffix).toPath();
 	}
 
-	public void ignore(String string) throws IOException {
-		ignored.add(string);
-		writer.write(string);
-		writer.write(System.lineSeparator());
+	private static byte[] hash(String string) {
+		return digests.get().digest(string.getBytes(StandardCharsets.UTF_8));
 	}
 
 }
@@ -1,35 +1,83 @@
 package org.w1ljid.projectdownloader;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.text.DecimalFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.kohsuke.github.*;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NoRemoteRepositoryException;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackFile;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.*;
+import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.FileUtils;
+import org.w1ljid.projectdownloader.discovery.Candidate;
+import org.w1ljid.projectdownloader.discovery.CandidateSource;
+import org.w1ljid.projectdownloader.discovery.LocalRepositories;
+import org.w1ljid.projectdownloader.discovery.SearchPrefetcher;
+import org.w1ljid.projectdownloader.discovery.ShardedSearch;
+import org.w1ljid.projectdownloader.discovery.YieldEstimator;
+import org.w1ljid.projectdownloader.git.BlobReader;
 import org.w1ljid.projectdownloader.git.GitHubCredentials;
+import org.w1ljid.projectdownloader.git.RateLimitedConnector;
 import org.w1ljid.projectdownloader.filters.*;
+import org.w1ljid.projectdownloader.matching.KeywordPlan;
+import org.w1ljid.projectdownloader.matching.SimHash;
+import org.w1ljid.projectdownloader.matching.TypeDeclaration;
+import org.w1ljid.projectdownloader.storage.LooseFileStore;
+import org.w1ljid.projectdownloader.storage.PackArchive;
+import org.w1ljid.projectdownloader.storage.SampleStore;
+import org.w1ljid.projectdownloader.storage.WriteBehindStore;
+import org.w1ljid.projectdownloader.util.Metrics;
+import org.w1ljid.projectdownloader.util.TaggedLog;
+import org.w1ljid.projectdownloader.util.TokenBucket;
 
 public class Main {
 
@@ -40,20 +88,53 @@ public class Main {
 	// --- Configuration ---
 	static final String outputDirectory = "downloaded"; // Absolute or relative directory where downloaded files will go. Note: this is not cleared between runs!
 	static final String downloadedFileExtension = ".java"; // Appended to downloaded file names.
+	static final String sampleArchiveIdentifier = null; // Directory where found files are appended to a few large segment files, instead of getting a file each. null stores loose files, "sample archive" turns it on. storage.PackArchiveExporter turns an archive back into loose files.
+	static final long sampleArchiveSegmentSize = 256 * U_MiB; // A new archive segment is started once a category's current one grows past this.
+	static final int sampleWriterThreads = 2; // Threads that write found files in the background, so that a slow disk doesn't hold up the search. 0 writes them on the threads that found them.
+	static final long sampleWriteQueueSize = 64 * U_MiB; // Bytes of found files that may wait to be written. Once this many do, finding more waits for the disk.
+	static final boolean syncStoredFiles = false; // Sync every loose file to the disk before it gets its name, so that a system crash can't leave empty files. The archive syncs on every flush regardless.
 	static final String ignoreListIdentifier = "ignored repositories"; // File used to keep track of already visited repositories.
+	static final int ignoreListTailLimit = 100_000; // Repositories kept in memory before the ignore list merges them into its sorted segment file.
+	static final String blobIndexIdentifier = "blob index"; // Directory used to remember which blobs were already classified, so copies in other repositories are skipped. null disables it. Starts over when the filters change.
+	static final long blobIndexExpectedBlobs = 100_000_000; // Sizes the blob index's Bloom filter (about 10 bits per blob on disk).
+	static final int blobIndexTailLimit = 1_000_000; // Blobs kept in memory before they are written to a new index segment.
+	static final String nearDuplicateIdentifier = null; // Directory used to remember fingerprints of stored files, so that nearly identical copies are skipped. null disables it, "near duplicates" turns it on.
+	static final int nearDuplicateMaxDistance = 3; // Files whose SimHash fingerprints differ in at most this many bits (out of 64) count as near-duplicates.
+	static final String checkpointIdentifier = "checkpoint"; // File where the repositories being processed, and how far along they are, are written down periodically, so that a killed run resumes them. null disables it.
+	static final long checkpointIntervalSeconds = 30;
+	static final String metricsIdentifier = "metrics"; // Files where the time spent in every stage, and how many files went through it, are written periodically: one JSON, one in Prometheus' text format. null disables them.
+	static final long metricsIntervalSeconds = 15;
+	static final String repositoryCacheIdentifier = null; // Directory where fetched repositories are kept, each with the commit last processed from it, so that crawling them again only fetches what is new and only filters the files that changed. null fetches into temporary repositories that are deleted afterwards. The ignore list stops visited repositories from being crawled again at all, so clear it (or turn it off) for a re-crawl.
+	static final int repositoryCacheMaxPacks = 16; // Every fetch into a cached repository adds a pack file. Once there are more than this, they are repacked into one, so that reading doesn't slow down with every re-crawl. 0 never repacks.
 	static final boolean autoIgnoreVisited = true;
 
-	// Repositories listed here will be visited before searching all of GitHub.
+	static final String localRepositoriesDirectory = null; // Directory whose repositories (bare ones like mirrors, or working copies) and .bundle files are processed in place, instead of searching GitHub. Subdirectories are searched too. null searches GitHub.
+
+	static final String githubApiUrl = "https://api.github.com"; // Where the GitHub API is. Can point at a local stand-in for testing.
+	static final int searchPageSize = 100; // Search results requested per page, at most 100.
+	static final int searchPrefetchCapacity = 200; // How many search results may be fetched ahead of the workers.
+	static final int searchShardThreads = 4; // A single search only returns 1000 results, so the search is split into ranges of creation times, this many of which are searched at the same time. 0 searches without splitting.
+	static final String searchShardsFrom = "2008-01-01T00:00:00Z"; // Earliest creation time to search from (GitHub launched in 2008).
+	static final String searchShardsIdentifier = "search shards"; // File used to remember which creation time ranges were searched through, so that they are skipped next time. null disables it.
+	static final double searchRequestsPerMinute = 30; // Most search requests to make. GitHub allows 30 a minute with credentials, 10 without; lower limits are picked up from its responses.
+	static final double apiRequestsPerHour = 5000; // Most other API requests to make. GitHub allows 5000 an hour with credentials, 60 without.
+	static final double gitTransfersPerMinute = 60; // Most repositories to start fetching per minute, separately from API requests. -1 means no limit.
+
+	// Repositories listed here will be visited before searching all of GitHub. Absolute paths of local repositories or bundles are read in place.
 	static final String[] processTheseFirst = new String[] {
 		//"https://github.com/Dit05/GitHubProjectDownloader2"
 	};
 
 
 	// Filter for git paths, before file content is even looked at.
-	static final TreeFilter treeFilter = PathSuffixFilter.create(".java");
+	static final String sourceFileSuffix = ".java";
+	static final TreeFilter treeFilter = PathSuffixFilter.create(sourceFileSuffix);
+
+	// ADAPTIVE lets the composite filters below, and the categories, measure which order of their inner filters decides the fastest. The results are the same as with DECLARED, which evaluates everything in the order written.
+	static final FilterOrder filterOrder = FilterOrder.ADAPTIVE;
 
 	// This catch-all filter, if provided, runs on file contents before category filters.
-	static final FileFilter preFilter = new AndFilter(new SketchyCharactersFilter(), new NotFilter(new KeywordFilter("Test", "junit"))); // Exclude files that seem like unit tests.
+	static final FileFilter preFilter = new AndFilter(filterOrder, new SketchyCharactersFilter(), new NotFilter(new TokenFilter("Test", "junit"))); // Exclude files that seem like unit tests. Mentions in comments or strings, or names like TestUtils, don't count.
 
 	// Stop after this many samples have been found for a category. -1 means no limit.
 	static final int categoryLimit = -1; // to be reimplemented
@@ -70,7 +151,7 @@ public class Main {
 			"class\\s+[A-z]+To[A-Z][A-z]*"), // class ApplesToOranges
 			"Adapter"),
 
-		new LabeledFilter(new AndFilter(
+		new LabeledFilter(new AndFilter(filterOrder,
 			new RegexFilter("[B,b]ridge"),
 			new KeywordFilter("extends"),
 			new KeywordFilter("implements")),
@@ -80,7 +161,7 @@ public class Main {
 
 		new LabeledFilter(new RegexFilter("class\\s+[A-z]*Decorator"), "Decorator"),
 
-		new LabeledFilter(new RegexFilter("class\\s+Null[A-z]+\\s+extends\\s+", "class\\s+Null[A-z]+\\s+implements\\s+"), "Null Object"),
+		new LabeledFilter(new DeclarationFilter("Null[A-Za-z]+", ".+", TypeDeclaration.Kind.CLASS), "Null Object"), // class NullLogger implements Logger, also with type parameters, but not in comments
 
 		new LabeledFilter(new RegexFilter("class\\s+[A-z]*State", "interface\\s+[A-z]*State"), "State"),
 
@@ -89,7 +170,7 @@ public class Main {
 			"[s,e]\\s+[A-z]*Behaviou?r\\s+[i,e]"), // or the same, but ending in ...Behavio(u)r
 			"Strategy"),
 
-		new LabeledFilter(new AndFilter(
+		new LabeledFilter(new AndFilter(filterOrder,
 			new RegexFilter("abstract\\s+[A-z]+\\s+[A-z]+\\("), // abstract method
 			new RegexFilter("public\\s+[A-z, ]+\\s+[A-z]+\\("), // public method
 			new RegexFilter("final\\s+[A-z, ]+\\s+[A-z]+\\("), // final method
@@ -97,101 +178,254 @@ public class Main {
 		), "Template Method") // not much to go off of for this one...
 	};
 
+	// Order the categories are tried in. When several match, the one declared first above still wins, whatever the order.
+	static final AdaptiveOrder categoryOrder = filterOrder == FilterOrder.ADAPTIVE ? new AdaptiveOrder(categoryFilters.length, false) : null;
+
+	// Every keyword used by the filters above, so that each file only has to be scanned for them once.
+	static final KeywordPlan keywordPlan = KeywordPlan.compile(preFilter, new OrFilter(categoryFilters));
+
+	// Each worker reads blobs into its own reusable buffer, and filters them through its own reusable FileContent.
+	static final ThreadLocal<BlobReader> blobReaders = ThreadLocal.withInitial(BlobReader::new);
+	static final ThreadLocal<FileContent> fileContents = ThreadLocal.withInitial(() -> new FileContent(keywordPlan));
+
 	// Whether to print a line for every file found.
 	static final boolean reportIndividualFiles = true;
 
 	// When non-negative: stop after this many repos.
 	static final int repositoryLimit = -1;
 
+	// How many repositories are downloaded and processed at the same time. Most of a repository's time is spent waiting on the network, so this can be well above the number of cores.
+	static final int repositoryWorkers = 8;
+
+	// Threads that help the repository workers load, filter and store the files of their repositories, shared by all of them. Lets a big repository use every core instead of one. 0 leaves each repository's files to its worker alone.
+	static final int blobHelperThreads = Runtime.getRuntime().availableProcessors() - 1;
+	// Files collected from the tree walk before they are processed in parallel. Checkpoints record a repository's progress a batch at a time.
+	static final int blobBatchSize = 512;
+
 	// Don't download repositories that are larger than this.
 	static final long maxRepositorySize = 1 * U_GiB;
 	// Don't process files that are larger than this.
 	static final long maxFileSize = 10 * U_MiB;
+	// Blobs at least this large are streamed into a buffer that is reused, smaller ones get a new array from JGit each. JGit's own default is 50 MiB, which would allocate nearly every blob anew.
+	static final int blobStreamThreshold = (int) (64 * U_KiB);
+
+	// Only fetch the tip commit of the main branch (depth 1) instead of its whole history. Falls back to a full fetch if the remote can't do shallow fetches.
+	static final boolean shallowFetch = true;
+
+	// TIP only looks at the files of the main branch's latest commit. BRANCH and ALL_BRANCHES look at every version of every file that ever was on the main branch, or on any branch.
+	// Each distinct version is read once, and stored under the commit it first appeared in, like "commit:path". They need the whole history, so shallowFetch is ignored.
+	static final HistoryScope historyScope = HistoryScope.TIP;
+
+	// Repositories at most this large (as reported by GitHub) are fetched into memory instead of a temporary directory. -1 disables in-memory fetching.
+	static final long inMemoryRepositoryThreshold = 32 * U_MiB;
+
+	// When non-negative: list each repository's files through the API first (one request from the API quota), and skip it without fetching anything if fewer than this many end with sourceFileSuffix.
+	static final int yieldCheckMinFiles = -1;
 	// -------
 
 
 
 	public static void main(String[] args) throws GitAPIException, IOException, InterruptedException, Exception {
 
+		WindowCacheConfig windowCache = new WindowCacheConfig(); // For repositories on the disk, in-memory ones get it in newInMemoryRepository
+		windowCache.setStreamFileThreshold(blobStreamThreshold);
+		windowCache.install();
+
 		FileLibrary fileLib = new FileLibrary(outputDirectory);
 		System.out.println("File library is at \"" + fileLib.getCanonicalRoot() + "\"");
 
+		SampleStore samples;
+		if (sampleArchiveIdentifier != null) {
+			PackArchive archive = new PackArchive(fileLib.getCustomLocation(sampleArchiveIdentifier, "d"), sampleArchiveSegmentSize);
+			archive.initialize();
+			samples = archive;
+			System.out.println("Storing found files in the archive at \"" + archive.getDirectory().getPath() + "\"");
+		} else {
+			samples = new LooseFileStore(fileLib, downloadedFileExtension, syncStoredFiles);
+		}
 		IgnoreList ignoreList = null;
 		if (ignoreListIdentifier != null) {
-			ignoreList = new IgnoreList(fileLib.getCustomLocation(ignoreListIdentifier, "txt"));
+			ignoreList = new IgnoreList(fileLib.getCustomLocation(ignoreListIdentifier, "txt"), ignoreListTailLimit);
 			ignoreList.initialize();
 			System.out.println("Ignore list contains " + ignoreList.size() + " repositor" + (ignoreList.size() == 1 ? "y" : "ies"));
 		}
 
+		BlobIndex blobIndex = null;
+		if (blobIndexIdentifier != null) {
+			blobIndex = new BlobIndex(fileLib.getCustomLocation(blobIndexIdentifier, "d"), blobIndexExpectedBlobs, blobIndexTailLimit, blobIndexConfiguration());
+			blobIndex.initialize();
+			if (blobIndex.wasCleared()) System.out.println("Blob index was cleared, the filters changed");
+			System.out.println("Blob index contains " + blobIndex.size() + " blob" + (blobIndex.size() == 1 ? "" : "s"));
+		}
+
+		if (sampleWriterThreads > 0) {
+			BlobIndex index = blobIndex;
+			WriteBehindStore writeBehind = new WriteBehindStore(samples, sampleWriterThreads, sampleWriteQueueSize,
+				(repository, path, contentId, location, length) -> {
+					if (reportIndividualFiles) new TaggedLog(repository).println("Found \"" + path + "\" -> " + location + " (" + formatBytes(length) + ")");
+					if (index != null) index.record(ObjectId.fromString(contentId), BlobIndex.STORED); // Only once written, so that a failed write is retried by a later run
+				});
+			writeBehind.initialize();
+			samples = writeBehind;
+		}
+
+		NearDuplicateIndex nearDuplicates = null;
+		if (nearDuplicateIdentifier != null) {
+			nearDuplicates = new NearDuplicateIndex(fileLib.getCustomLocation(nearDuplicateIdentifier, "d"), nearDuplicateMaxDistance);
+			nearDuplicates.initialize();
+			System.out.println("Near-duplicate index contains " + nearDuplicates.size() + " fingerprint" + (nearDuplicates.size() == 1 ? "" : "s"));
+		}
+
+		CachedRepositories repositoryCache = null;
+		if (repositoryCacheIdentifier != null) {
+			repositoryCache = new CachedRepositories(fileLib.getCustomLocation(repositoryCacheIdentifier, "d"), repositoryCacheMaxPacks);
+			repositoryCache.initialize();
+			System.out.println("Keeping fetched repositories in \"" + repositoryCache.getDirectory().getPath() + "\"");
+		}
+
+		Metrics metrics = new Metrics(
+			metricsIdentifier != null ? fileLib.getCustomLocation(metricsIdentifier, "json") : null,
+			metricsIdentifier != null ? fileLib.getCustomLocation(metricsIdentifier, "prom") : null,
+			metricsIntervalSeconds);
+		metrics.initialize();
+		StageMetrics stageMetrics = new StageMetrics(metrics, categoryFilters);
+
+		Checkpoint checkpoint = null;
 		try {
-			GitHubCredentials creds = GitHubCredentials.acquireOrPrompt();
-			if (creds == null) System.out.println("No credentials provided.");
+			GitHubCredentials creds = null;
+			GitHub github = null;
+			if (localRepositoriesDirectory == null) { // Nothing to ask GitHub otherwise
+				creds = GitHubCredentials.acquireOrPrompt();
+				if (creds == null) System.out.println("No credentials provided.");
 
-			GitHub github;
-			try {
-				github = connectToGitHub(creds);
-			} catch (java.io.IOException ioe) {
-				Throwable cause = ioe.getCause();
-				if (
-					cause != null
-						&& cause instanceof org.kohsuke.github.HttpException
-						&& ((org.kohsuke.github.HttpException) cause).getMessage().contains("Bad credentials")
-				) {
-					System.err.println("GitHub says invalid credentials. Try generating a valid key for your account at [https://github.com/settings/personal-access-tokens].");
-					return;
-				} else {
-					throw ioe;
+				try {
+					github = connectToGitHub(creds);
+				} catch (java.io.IOException ioe) {
+					Throwable cause = ioe.getCause();
+					if (
+						cause != null
+							&& cause instanceof org.kohsuke.github.HttpException
+							&& ((org.kohsuke.github.HttpException) cause).getMessage().contains("Bad credentials")
+					) {
+						System.err.println("GitHub says invalid credentials. Try generating a valid key for your account at [https://github.com/settings/personal-access-tokens].");
+						return;
+					} else {
+						throw ioe;
+					}
 				}
+				System.out.println("Succesfully connected to GitHub!");
+			} else {
+				System.out.println("Processing the repositories under \"" + new File(localRepositoriesDirectory).getAbsolutePath() + "\" instead of searching GitHub");
 			}
-			System.out.println("Succesfully connected to GitHub!");
+
+			if (checkpointIdentifier != null) {
+				checkpoint = new Checkpoint(fileLib.getCustomLocation(checkpointIdentifier, "txt"), checkpointIntervalSeconds, samples, nearDuplicates != null ? nearDuplicates::flush : null);
+				checkpoint.initialize();
+			}
+
+			ExecutorService blobHelpers = blobHelperThreads > 0 ? Executors.newFixedThreadPool(blobHelperThreads) : null;
+			ProcessingContext context = new ProcessingContext(creds, samples, blobIndex, nearDuplicates,
+				gitTransfersPerMinute > 0 ? new TokenBucket(gitTransfersPerMinute / 60, repositoryWorkers) : null,
+				yieldCheckMinFiles >= 0 ? new YieldEstimator(sourceFileSuffix, maxFileSize, yieldCheckMinFiles) : null,
+				checkpoint, stageMetrics, blobHelpers, Math.max(blobHelperThreads, 0), repositoryCache);
 
 			Instant started = Instant.now();
 			System.out.println("### Started at: " + formatTime(started));
 
-			for (String url : processTheseFirst) {
-				System.out.println("Now processing: \"" + url + "\" (time: " + formatTime(Instant.now()) + ")");
-				processRepository(url, creds, fileLib, url);
-				System.out.println("\n---\n");
-			}
+			ExecutorService workers = Executors.newFixedThreadPool(repositoryWorkers);
+			Semaphore workerSlots = new Semaphore(repositoryWorkers); // Keeps the search from running ahead of the workers.
+			metrics.gauge("projectdownloader_workers_busy", "Repositories being processed right now.", () -> repositoryWorkers - workerSlots.availablePermits());
+			IgnoreList doneShards = null;
+			CandidateSource search = null;
+			try {
+				if (checkpoint != null) {
+					for (Checkpoint.Progress resumed : checkpoint.getResumable()) {
+						Candidate candidate = resumed.getCandidate();
+						if (ignoreList != null && ignoreList.isIgnored(candidate.getFullName())) continue;
+						System.out.println("Resuming \"" + candidate.getFullName() + "\" from the last checkpoint");
+						submitRepository(workers, workerSlots, candidate, resumed, context, ignoreList, null);
+					}
+				}
 
+				for (String url : processTheseFirst) {
+					submitRepository(workers, workerSlots, new Candidate(url, url, -1, null), null, context, null, null);
+				}
 
-			int reposLeft = repositoryLimit;
-			if (repositoryLimit >= 0) {
-				System.out.println("Processing at most " + reposLeft + " repositories");
-			}
 
-			for (GHRepository repo : github.searchRepositories().language("java").list()) {
-				String repoName = repo.getFullName(); // For example, Dit05/GitHubProjectDownloader2 (not an URL)
-				if (ignoreList != null && ignoreList.isIgnored(repoName)) {
-					System.out.println("Ignoring \"" + repoName + "\"");
-					continue;
+				int reposLeft = repositoryLimit;
+				if (repositoryLimit >= 0) {
+					System.out.println("Processing at most " + reposLeft + " repositories");
 				}
 
-				if (repositoryLimit >= 0) {
-					System.out.println("### " + reposLeft + " left");
-					if (reposLeft-- <= 0) break;
+				if (localRepositoriesDirectory == null && searchShardThreads > 0 && searchShardsIdentifier != null) {
+					doneShards = new IgnoreList(fileLib.getCustomLocation(searchShardsIdentifier, "txt"));
+					doneShards.initialize();
 				}
 
-				long repoSize = repo.getSize() * U_KiB;
-				System.out.println("Now processing: \"" + repoName + "\" (size: " + formatBytes(repoSize) + ", time: " + formatTime(Instant.now()) + ")");
+				search = localRepositoriesDirectory != null ? new LocalRepositories(new File(localRepositoriesDirectory))
+					: searchShardThreads > 0 ? new ShardedSearch(github, "java", Instant.parse(searchShardsFrom), Instant.now(), searchShardThreads, searchPrefetchCapacity, doneShards)
+					: new SearchPrefetcher(github.searchRepositories().language("java").list().withPageSize(searchPageSize), searchPrefetchCapacity);
+				search.start(); // Pages are fetched in the background while the workers are busy.
+
+				Candidate candidate;
+				while ((candidate = search.take()) != null) {
+					String repoName = candidate.getFullName();
+					if (ignoreList != null && ignoreList.isIgnored(repoName)) {
+						System.out.println("Ignoring \"" + repoName + "\"");
+						search.finished(candidate);
+						continue;
+					}
+					if (checkpoint != null && checkpoint.isInFlight(repoName)) {
+						// Resumed from the checkpoint, and not done yet. Not reported finished, since that run may still fail; its shard is searched again next time.
+						System.out.println("Ignoring \"" + repoName + "\", already being processed");
+						continue;
+					}
 
-				if (repoSize > maxRepositorySize) {
-					System.out.println("Too big, skipping.");
-					continue;
-				}
+					if (repositoryLimit >= 0) {
+						System.out.println("### " + reposLeft + " left");
+						if (reposLeft-- <= 0) break;
+					}
+
+					if (candidate.getSize() > maxRepositorySize) {
+						System.out.println("Skipping \"" + repoName + "\", too big (size: " + formatBytes(candidate.getSize()) + ")");
+						search.finished(candidate);
+						continue;
+					}
 
-				processRepository(repo.getHttpTransportUrl(), creds, fileLib, repoName);
-				ignoreList.ignore(repoName);
-				ignoreList.flush();
-				System.out.println("\n---\n");
+					submitRepository(workers, workerSlots, candidate, null, context, ignoreList, search);
+				}
+			} finally {
+				workers.shutdown();
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+				if (blobHelpers != null) blobHelpers.shutdown(); // Only ever used by the workers
+				// Not before the workers are done, they report the repositories they finish to the search, which remembers completed shards in doneShards
+				if (search != null) search.close();
+				if (doneShards != null) doneShards.close();
 			}
 
 			Instant finished = Instant.now();
 			System.out.println("### Finished at: " + formatTime(finished) + " (took " + formatTimeDifference(started, finished) + ")");
+
+			YieldEstimator estimator = context.getYieldEstimator();
+			if (estimator != null) {
+				System.out.println("Yield check: listed " + estimator.getChecked() + ", skipped " + estimator.getSkipped() + " (about " + formatBytes(estimator.getBytesSkipped()) + " not fetched), "
+					+ estimator.getFetchedWithFinds() + " of " + estimator.getFetched() + " fetched repositories had matches");
+			}
 		} finally {
+			metrics.close();
+			if (checkpoint != null) {
+				checkpoint.close(); // Before the stores it flushes are closed
+			}
+			samples.close();
 			if (ignoreList != null) {
 				ignoreList.close();
 			}
+			if (blobIndex != null) {
+				blobIndex.close();
+			}
+			if (nearDuplicates != null) {
+				nearDuplicates.close();
+			}
 		}
 	}
 
@@ -225,8 +459,86 @@ public class Main {
 		return String.format("%d:%02d:%02d", s / 3600, (s % 3600) / 60, (s % 60));
 	}
 
+	/**
+	 * Waits for a free worker, then processes the repository on it. The repository is added to the ignore list (if any), and reported finished to its source (if any), once it was processed successfully.
+	 * @param resumeFrom Progress from an earlier run, or null.
+	 */
+	static void submitRepository(ExecutorService workers, Semaphore workerSlots, Candidate candidate, Checkpoint.Progress resumeFrom, ProcessingContext context, IgnoreList ignoreList, CandidateSource source) throws InterruptedException {
+		String repoName = candidate.getFullName();
+		workerSlots.acquire();
+		try {
+			workers.execute(() -> {
+				TaggedLog log = new TaggedLog(repoName);
+				Checkpoint checkpoint = context.getCheckpoint();
+				Checkpoint.Progress progress = checkpoint != null ? checkpoint.begin(candidate, resumeFrom) : null;
+				StageMetrics stages = context.getStageMetrics();
+				long started = System.nanoTime();
+				try {
+					log.println("Now processing: \"" + candidate.getTransportUrl() + "\" (time: " + formatTime(Instant.now()) + ")");
+					processRepository(candidate, progress, context, log);
+					context.getSamples().flush(repoName); // Before the repository is ignored, so that its files are never lost
+					if (context.getNearDuplicates() != null) context.getNearDuplicates().flush();
+					if (ignoreList != null) {
+						ignoreList.ignore(repoName);
+						ignoreList.flush();
+					}
+					if (source != null) source.finished(candidate);
+					stages.repositoriesProcessed.increment();
+					log.println("Done (time: " + formatTime(Instant.now()) + ")");
+				} catch (Exception e) {
+					stages.repositoriesFailed.increment();
+					log.error("Failed to process repository", e);
+					if (context.getGitThrottle() != null && isTransferRateLimited(e)) {
+						slowDownTransfers(context.getGitThrottle());
+						log.println("Git transfers are rate limited, pausing them for a minute and slowing down to " + String.format("%.2f", context.getGitThrottle().getRate() * 60) + " per minute");
+					}
+				} finally {
+					stages.repository.recordSince(started);
+					if (progress != null) checkpoint.end(progress);
+					workerSlots.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			workerSlots.release();
+			throw e;
+		}
+	}
+
+	private static final Pattern HTTP_TOO_MANY_REQUESTS = Pattern.compile(": 429(?: [^:]*)?$"); // How JGit's HTTP transport reports the status, after the URL
+
+	/**
+	 * Whether a git transfer failed because the server answered HTTP 429, meaning we are going too fast.
+	 */
+	static boolean isTransferRateLimited(Throwable e) {
+		for (; e != null; e = e.getCause()) {
+			if (e instanceof org.eclipse.jgit.errors.TransportException && e.getMessage() != null && HTTP_TOO_MANY_REQUESTS.matcher(e.getMessage()).find()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Halves the rate of git transfers, down to 1/64 of {@link #gitTransfersPerMinute}, and pauses them for a minute.
+	 */
+	static void slowDownTransfers(TokenBucket throttle) {
+		synchronized (throttle) {
+			throttle.setRate(Math.max(gitTransfersPerMinute / 60 / 64, throttle.getRate() / 2));
+		}
+		throttle.pause(60, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Raises the rate of git transfers a little after one succeeded, back up to {@link #gitTransfersPerMinute}.
+	 */
+	static void speedUpTransfers(TokenBucket throttle) {
+		synchronized (throttle) {
+			throttle.setRate(Math.min(gitTransfersPerMinute / 60, throttle.getRate() + gitTransfersPerMinute / 60 / 32));
+		}
+	}
+
 	static GitHub connectToGitHub(GitHubCredentials creds) throws IOException {
-		GitHubBuilder builder = new GitHubBuilder();
+		GitHubBuilder builder = new GitHubBuilder()
+			.withEndpoint(githubApiUrl)
+			.withConnector(new RateLimitedConnector(GitHubConnector.DEFAULT, searchRequestsPerMinute / 60, apiRequestsPerHour / 3600));
 
 		if (creds != null) builder = creds.apply(builder);
 
@@ -236,7 +548,15 @@ public class Main {
 		return github;
 	}
 
-	static Ref selectMainRef(Collection<Ref> refs) {
+	/**
+	 * @param defaultBranch Preferred branch name, or null to look for main or master.
+	 */
+	static Ref selectMainRef(Collection<Ref> refs, String defaultBranch) {
+		if (defaultBranch != null) {
+			for (Ref ref : refs) {
+				if (ref.getName().equals("refs/heads/" + defaultBranch)) return ref;
+			}
+		}
 		for (Ref ref : refs) {
 			String name = ref.getName();
 			if (name.equals("refs/heads/main") || name.equals("refs/heads/master")) return ref;
@@ -244,144 +564,556 @@ public class Main {
 		return null;
 	}
 
-	static String checkAgainstCategories(String fileContent) {
-		for (LabeledFilter filter : categoryFilters) {
-			if (filter.checkMatch(fileContent)) return filter.getLabel();
+	/**
+	 * An empty repository kept in the heap. It can fetch from local (file://) remotes and bundles, and streams blobs from {@link #blobStreamThreshold} on.
+	 */
+	static InMemoryRepository newInMemoryRepository(String name) throws IOException {
+		InMemoryRepository repository = new InMemoryRepository.Builder()
+			.setRepositoryDescription(new DfsRepositoryDescription(name))
+			.setFS(FS.DETECTED)
+			.build();
+		repository.getObjectDatabase().getReaderOptions().setStreamFileThreshold(blobStreamThreshold); // The builder's reader options are ignored
+		return repository;
+	}
+
+	/**
+	 * Fetches a single ref from the remote (every branch with {@link HistoryScope#ALL_BRANCHES}), into a ref of the same name, so that a cached repository
+	 * tells the next fetch which objects it already has.
+	 * Only the objects reachable from its tip commit are transferred when {@link #shallowFetch} is on, {@link #historyScope} doesn't need more, and the transport supports it.
+	 */
+	static void fetchRef(Git git, String remoteUrl, Ref ref, CredentialsProvider credentialsProvider, TaggedLog log) throws GitAPIException {
+		RefSpec refSpec = historyScope == HistoryScope.ALL_BRANCHES
+			? new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_HEADS + "*")
+			: new RefSpec(ref.getName() + ":" + ref.getName()).setForceUpdate(true);
+		FetchCommand fetch = git.fetch()
+			.setRemote(remoteUrl)
+			.setRefSpecs(refSpec)
+			.setCredentialsProvider(credentialsProvider);
+
+		if (shallowFetch && historyScope == HistoryScope.TIP) {
+			try {
+				fetch.setDepth(1).call();
+				log.println("Shallow fetch complete.");
+				return;
+			} catch (org.eclipse.jgit.api.errors.TransportException e) {
+				log.println("Shallow fetch failed (" + e.getMessage() + "), falling back to a full fetch.");
+				fetch = git.fetch()
+					.setRemote(remoteUrl)
+					.setRefSpecs(refSpec)
+					.setCredentialsProvider(credentialsProvider);
+			}
 		}
-		return null;
+
+		fetch.call();
+		log.println("Fetch complete.");
+	}
+
+	/**
+	 * @return The label of the first category, in declared order, that matches the file, or null.
+	 * With an adaptive order, the categories likeliest to match cheaply are tried first, and the ones declared after a category that already matched are skipped.
+	 */
+	static String checkAgainstCategories(FileContent fileContent, StageMetrics stages) {
+		long t = System.nanoTime();
+		if (categoryOrder == null) {
+			for (int i = 0; i < categoryFilters.length; i++) {
+				boolean matched = categoryFilters[i].checkMatch(fileContent);
+				t = stages.category(i).recordSince(t);
+				if (matched) return categoryFilters[i].getLabel();
+			}
+			return null;
+		}
+
+		boolean sample = categoryOrder.shouldSample(); // Runs every category, for the order to learn from
+		long[] nanos = sample ? new long[categoryFilters.length] : null;
+		boolean[] matches = sample ? new boolean[categoryFilters.length] : null;
+		int winner = categoryFilters.length;
+		for (int i : categoryOrder.getOrder()) {
+			if (i > winner && !sample) continue; // Can't win anymore
+			boolean matched = categoryFilters[i].checkMatch(fileContent);
+			long now = stages.category(i).recordSince(t);
+			if (sample) {
+				nanos[i] = now - t;
+				matches[i] = matched;
+			}
+			t = now;
+			if (matched && i < winner) {
+				winner = i;
+				if (winner == 0 && !sample) break;
+			}
+		}
+		if (sample) categoryOrder.record(nanos, matches);
+		return winner < categoryFilters.length ? categoryFilters[winner].getLabel() : null;
+	}
+
+	/**
+	 * @return The size of the repository's pack files, which is how much a fetch into an empty repository transferred.
+	 */
+	static long packBytes(Repository repository) throws IOException {
+		long bytes = 0;
+		if (repository instanceof DfsRepository) {
+			for (DfsPackFile pack : ((DfsRepository) repository).getObjectDatabase().getPacks()) {
+				bytes += pack.getPackDescription().getFileSize(PackExt.PACK);
+			}
+		} else {
+			File[] packs = new File(repository.getDirectory(), "objects/pack").listFiles((dir, name) -> name.endsWith(".pack"));
+			if (packs != null) {
+				for (File pack : packs) bytes += pack.length();
+			}
+		}
+		return bytes;
 	}
 
-	static int processRepository(String remoteUrl, GitHubCredentials creds, FileLibrary fileLib, String labelPrefix) throws Exception {
+	/**
+	 * The candidate's size decides whether the repository is fetched into memory or onto the disk. Local candidates aren't fetched at all, see {@link #processLocalRepository}.
+	 * @param progress Where to record how far along the tree walk is, and to skip what an earlier run already did. May be null.
+	 */
+	static int processRepository(Candidate candidate, Checkpoint.Progress progress, ProcessingContext context, TaggedLog log) throws Exception {
+		if (candidate.isLocal()) return processLocalRepository(candidate, progress, context, log);
+
+		String remoteUrl = candidate.getTransportUrl();
+		long sizeHint = candidate.getSize();
+		String labelPrefix = candidate.getFullName();
 
+		GitHubCredentials creds = context.getCredentials();
 		CredentialsProvider credentialsProvider = creds != null ? creds.toCredentialsProvider() : null; // No credentials for public repo
+		StageMetrics stages = context.getStageMetrics();
+		CachedRepositories repositoryCache = context.getRepositoryCache();
 
 		// All the stuff we'll have to close later
 		File tempGitDir = null;
 		Repository repository = null;
+		boolean cached = false;
 		Git git = null;
-		RevWalk revWalk = null;
-		TreeWalk treeWalk = null;
 		int filesFound = 0;
-		long bytesFound = 0;
 
-		try {
-			// This is deleted in the finally block.
-			tempGitDir = Files.createTempDirectory("jgit-temp-repo").toFile();
+		YieldEstimator estimator = context.getYieldEstimator();
+		boolean estimated = false;
+		if (estimator != null) {
+			YieldEstimator.Estimate estimate = null;
+			try {
+				estimate = estimator.estimate(candidate);
+			} catch (IOException e) {
+				log.println("Tree listing failed (" + e.getMessage() + "), fetching anyway");
+			}
+			if (estimate != null) {
+				estimated = true;
+				log.println("Tree listing: " + estimate.getFiles() + " file" + (estimate.getFiles() == 1 ? "" : "s") + " (" + formatBytes(estimate.getBytes()) + ")" + (estimate.isTruncated() ? ", truncated" : ""));
+				if (!estimator.isWorthFetching(candidate, estimate)) {
+					log.println("Skipping, not enough files to be worth fetching");
+					return 0;
+				}
+			}
+		}
 
-			repository = new FileRepositoryBuilder()
-				.setGitDir(tempGitDir)
-				.setBare() // Bare repository (no working directory)
-				.build();
-			repository.create(true); // Important: Make sure to actually create the repository.
+		try {
+			if (repositoryCache != null) {
+				// Kept after processing, with whatever an earlier run fetched into it already.
+				repository = repositoryCache.open(labelPrefix);
+				cached = true;
+			} else if (sizeHint >= 0 && sizeHint <= inMemoryRepositoryThreshold) {
+				// Small enough to keep in the heap, nothing to delete afterwards.
+				repository = newInMemoryRepository(labelPrefix);
+			} else {
+				// This is deleted in the finally block.
+				tempGitDir = Files.createTempDirectory("jgit-temp-repo").toFile();
+
+				repository = new FileRepositoryBuilder()
+					.setGitDir(tempGitDir)
+					.setBare() // Bare repository (no working directory)
+					.build();
+				repository.create(true); // Important: Make sure to actually create the repository.
+			}
 
-			System.out.println("Fetching repository: " + remoteUrl);
+			log.println("Fetching repository: " + remoteUrl + (cached ? " (cached)" : tempGitDir == null ? " (in memory)" : ""));
 			git = new Git(repository);
 
-			// Find main or master
-			Ref mainRef = selectMainRef(Git.lsRemoteRepository().setRemote(remoteUrl).call());
-			System.out.print("Main ref: ");
+			if (context.getGitThrottle() != null) context.getGitThrottle().acquire();
+
+			// Find the default branch, or main or master
+			long t = System.nanoTime();
+			Ref mainRef = selectMainRef(Git.lsRemoteRepository().setRemote(remoteUrl).call(), candidate.getDefaultBranch());
+			stages.lsRemote.recordSince(t);
 			if (mainRef != null) {
-				System.out.println(mainRef);
+				log.println("Main ref: " + mainRef);
 			} else {
-				System.out.println("not found, skipping repository");
+				log.println("Main ref: not found, skipping repository");
 				return 0;
 			}
 
-			// Fetch the target branch
-			git.fetch()
-				.setRemote(remoteUrl)
-				.setRefSpecs(new RefSpec(mainRef.getName()))
-				.setCredentialsProvider(credentialsProvider).call();
-
-			System.out.println("Fetch complete.");
-
-			revWalk = new RevWalk(repository);
-			RevCommit commit = revWalk.parseCommit(mainRef.getObjectId());
-			RevTree revTree = commit.getTree();
-
-			// Walk the tree
-			treeWalk = new TreeWalk(repository);
-			treeWalk.addTree(revTree);
-			treeWalk.setRecursive(true);
-			treeWalk.setFilter(treeFilter);
-
-			while (treeWalk.next()) {
-				// Read file
-				ObjectLoader loader = repository.open(treeWalk.getObjectId(0));
-				String filePathString = treeWalk.getPathString();
-
-				try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-					loader.copyTo(out);
-					if (out.size() > maxFileSize) {
-						continue;
-					}
-
-					String fileContent = out.toString("UTF-8"); // Assuming UTF-8 encoding
-					if (preFilter != null && !preFilter.checkMatch(fileContent)) continue;
+			ObjectId processed = cached ? CachedRepositories.getProcessed(repository) : null;
+			if (mainRef.getObjectId().equals(processed)) {
+				log.println("Unchanged since it was last processed");
+				return 0;
+			}
 
-					String category = checkAgainstCategories(fileContent);
-					if (category == null) continue;
+			// Fetch the target branch
+			long packsBefore = packBytes(repository);
+			t = System.nanoTime();
+			fetchRef(git, remoteUrl, mainRef, credentialsProvider, log);
+			stages.fetch.recordSince(t);
+			if (context.getGitThrottle() != null) speedUpTransfers(context.getGitThrottle());
+			stages.fetchedBytes.add(packBytes(repository) - packsBefore);
+			if (cached) {
+				int packs = repositoryCache.repackIfNeeded(repository);
+				if (packs >= 0) log.println("Repacked " + packs + " packs into one");
+			}
 
-					filesFound++;
-					bytesFound += out.size();
+			if (processed != null) log.println("Only looking at the files changed since " + processed.name());
 
-					if (reportIndividualFiles) {
-						String label = labelPrefix + " " + fileLib.suggestLabel(filePathString);
-						String storedPath = fileLib.store(category, label, out, downloadedFileExtension);
-						System.out.println("Found \"" + filePathString + "\" -> " + storedPath + " (" + formatBytes(out.size()) + ")");
-					}
-				}
+			filesFound = processCommit(repository, processed, mainRef.getObjectId(), labelPrefix, progress, context, log);
+			if (estimated) estimator.recordFetched(filesFound);
+			if (cached) {
+				context.getSamples().flush(labelPrefix); // The files found have to be safe before the commit counts as processed
+				CachedRepositories.setProcessed(repository, mainRef.getObjectId());
 			}
-			System.out.println("Acquired a total of " + filesFound + " file" + (filesFound == 1 ? "" : "s") + " (" + formatBytes(bytesFound) + ")");
 
 		} catch (NoRemoteRepositoryException e) {
-			System.err.println("Remote repository not found at \"" + remoteUrl + "\"");
-			e.printStackTrace();
+			log.error("Remote repository not found at \"" + remoteUrl + "\"", e);
 		} finally {
 			// Cleanup
 			if (tempGitDir != null && tempGitDir.exists()) {
 				try {
 					FileUtils.delete(tempGitDir, FileUtils.RECURSIVE);
-					System.out.println("Deleted temporary directory \"" + tempGitDir.getAbsolutePath() + "\"");
+					log.println("Deleted temporary directory \"" + tempGitDir.getAbsolutePath() + "\"");
 				} catch (IOException e) {
-					System.err.println("Error deleting temporary directory\"" + tempGitDir.getAbsolutePath() + "\"");
-					e.printStackTrace();
+					log.error("Error deleting temporary directory\"" + tempGitDir.getAbsolutePath() + "\"", e);
 				}
 			}
 			if (repository != null) {
 				try {
 					repository.close();
 				} catch (Exception e) {
-					System.err.println("Error closing Repository object");
-					e.printStackTrace();
+					log.error("Error closing Repository object", e);
 				}
+				if (cached) repositoryCache.release(labelPrefix);
 			}
 			if (git != null) {
 				try {
 					git.close();
 				} catch (Exception e) {
-					System.err.println("Error closing Git object");
-					e.printStackTrace();
+					log.error("Error closing Git object", e);
+				}
+			}
+		}
+
+		return filesFound;
+	}
+
+	/**
+	 * Processes a repository on the disk, without a temporary repository or the network. A repository directory (bare, a mirror or a working copy)
+	 * is read in place, a bundle is unpacked into memory. The commit HEAD points at is processed, or else main or master.
+	 * @param progress Where to record how far along the tree walk is, and to skip what an earlier run already did. May be null.
+	 */
+	static int processLocalRepository(Candidate candidate, Checkpoint.Progress progress, ProcessingContext context, TaggedLog log) throws Exception {
+		File location = new File(candidate.getTransportUrl());
+		String labelPrefix = candidate.getFullName();
+		StageMetrics stages = context.getStageMetrics();
+
+		if (location.isFile()) {
+			log.println("Unpacking bundle: " + location.getPath() + " (in memory)");
+			try (
+				Repository repository = newInMemoryRepository(labelPrefix);
+				Git git = new Git(repository)
+			) {
+				Collection<Ref> refs = git.lsRemote().setRemote(location.getPath()).call();
+				Ref mainRef = null;
+				for (Ref ref : refs) {
+					if (ref.getName().equals(Constants.HEAD)) mainRef = ref;
+				}
+				if (mainRef == null) mainRef = selectMainRef(refs, candidate.getDefaultBranch());
+				if (mainRef == null) {
+					log.println("Main ref: not found, skipping bundle");
+					return 0;
+				}
+				log.println("Main ref: " + mainRef);
+
+				long t = System.nanoTime();
+				RefSpec refSpec = historyScope == HistoryScope.ALL_BRANCHES ? new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_HEADS + "*") : new RefSpec(mainRef.getName());
+				git.fetch().setRemote(location.getPath()).setRefSpecs(refSpec).call();
+				stages.fetch.recordSince(t);
+				stages.fetchedBytes.add(packBytes(repository));
+				return processCommit(repository, null, mainRef.getObjectId(), labelPrefix, progress, context, log);
+			}
+		}
+
+		File gitDir = RepositoryCache.FileKey.resolve(location, FS.DETECTED); // The directory itself if it's bare, its .git otherwise
+		if (gitDir == null) throw new IOException("Not a git repository: \"" + location.getPath() + "\"");
+		log.println("Reading repository in place: " + gitDir.getPath());
+		try (Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+			Ref mainRef = repository.exactRef(Constants.HEAD);
+			if (mainRef == null || mainRef.getObjectId() == null) { // Unborn
+				mainRef = selectMainRef(repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS), candidate.getDefaultBranch());
+			}
+			if (mainRef == null) {
+				log.println("Main ref: not found, skipping repository");
+				return 0;
+			}
+			log.println("Main ref: " + mainRef);
+			return processCommit(repository, null, mainRef.getObjectId(), labelPrefix, progress, context, log);
+		}
+	}
+
+	/**
+	 * Walks the tree of a commit, and processes the files that pass {@link #treeFilter}.
+	 * @param baseCommitId A commit processed earlier, whose files are skipped unless the commit changed them, or null to process every file.
+	 * @param labelPrefix The repository's name.
+	 * @param progress Where to record how far along the tree walk is, and to skip what an earlier run already did. May be null.
+	 * @return How many files were stored.
+	 */
+	static int processCommit(Repository repository, AnyObjectId baseCommitId, AnyObjectId commitId, String labelPrefix, Checkpoint.Progress progress, ProcessingContext context, TaggedLog log) throws Exception {
+		if (historyScope != HistoryScope.TIP) return processHistory(repository, baseCommitId, commitId, labelPrefix, progress, context, log);
+
+		BlobIndex blobIndex = context.getBlobIndex();
+		StageMetrics stages = context.getStageMetrics();
+		Tally tally = new Tally();
+
+		try (
+			RevWalk revWalk = new RevWalk(repository);
+			ObjectReader objectReader = repository.newObjectReader(); // Shared by the walk and the blob reads.
+			TreeWalk treeWalk = new TreeWalk(repository, objectReader)
+		) {
+			RevCommit commit = revWalk.parseCommit(commitId);
+			RevTree revTree = commit.getTree();
+			RevCommit base = null;
+			if (baseCommitId != null) {
+				try {
+					base = revWalk.parseCommit(baseCommitId);
+				} catch (MissingObjectException e) {
+					log.println("The commit processed last time is missing, looking at every file");
+				}
+			}
+
+			// Walk the tree, or only the paths where it differs from the base's (unchanged subtrees aren't even entered)
+			int tree = 0; // Index of the commit's tree in the walk
+			if (base != null) {
+				treeWalk.addTree(base.getTree());
+				tree = 1;
+			}
+			treeWalk.addTree(revTree);
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(base != null ? AndTreeFilter.create(TreeFilter.ANY_DIFF, treeFilter) : treeFilter);
+
+			String commitName = commit.name();
+			long entriesToSkip = progress != null ? progress.getEntriesToSkip(commitName) : 0;
+			if (progress != null) progress.startCommit(commitName);
+			if (entriesToSkip > 0) log.println("Resuming after " + entriesToSkip + " files processed by an earlier run");
+			long entry = -1;
+
+			// Entries are collected into batches, whose blobs are loaded, filtered and stored by this thread and the blob helpers together
+			BlobBatch batch = new BlobBatch(blobBatchSize);
+			BlobBatch.Processor processor = (reader, blobId, path) -> processBlob(reader, blobId, path, labelPrefix, context, tally, log);
+			MutableObjectId blobId = new MutableObjectId();
+
+			for (long walkStarted = System.nanoTime(); treeWalk.next(); walkStarted = System.nanoTime()) {
+				stages.treeWalk.recordSince(walkStarted);
+				stages.entriesWalked.increment();
+				entry++;
+				if (entry < entriesToSkip) {
+					if (progress != null) progress.setEntries(entry + 1);
+					continue;
+				}
+
+				if (treeWalk.getRawMode(tree) == 0) continue; // Deleted since the base
+				treeWalk.getObjectId(blobId, tree);
+				if (blobIndex != null && batch.contains(blobId)) { // A copy in the same batch, which will have classified it by the time this would have been processed
+					tally.blobsKnown.increment();
+					stages.blobsKnown.increment();
+					continue;
+				}
+				batch.add(blobId, treeWalk.getPathString());
+				if (batch.isFull()) {
+					batch.process(repository, objectReader, context.getBlobHelpers(), context.getBlobHelperCount(), processor);
+					batch.clear();
+					if (progress != null) progress.setEntries(entry + 1); // Every entry up to this one was dealt with
+				}
+			}
+			batch.process(repository, objectReader, context.getBlobHelpers(), context.getBlobHelperCount(), processor);
+			if (progress != null) progress.setEntries(entry + 1);
+
+			return logTally(tally, log);
+		}
+	}
+
+	/**
+	 * Processes every distinct version of every file in the history of a commit, or of every branch with {@link HistoryScope#ALL_BRANCHES}, oldest first.
+	 * An ObjectWalk hands out each tree and blob once, however many commits and paths share it, so the cost grows with the number of distinct
+	 * objects, not with commits times files. Its object table (the same one JGit packs with) is what remembers which ones were seen.
+	 * Files are picked by {@link #sourceFileSuffix}, and named "commit:path" after the first commit they appeared in.
+	 * @param baseCommitId A commit processed earlier, whose history is skipped, or null.
+	 * @param labelPrefix The repository's name.
+	 * @param progress Where to record how far along the walk is, and to skip what an earlier run already did. May be null.
+	 * @return How many files were stored.
+	 */
+	static int processHistory(Repository repository, AnyObjectId baseCommitId, AnyObjectId commitId, String labelPrefix, Checkpoint.Progress progress, ProcessingContext context, TaggedLog log) throws Exception {
+		BlobIndex blobIndex = context.getBlobIndex();
+		StageMetrics stages = context.getStageMetrics();
+		Tally tally = new Tally();
+
+		try (ObjectWalk walk = new ObjectWalk(repository)) {
+			walk.sort(RevSort.TOPO);
+			walk.sort(RevSort.REVERSE, true); // Oldest first, so that a blob is seen first in the commit that introduced it
+
+			List<ObjectId> tips = new ArrayList<>();
+			tips.add(commitId.toObjectId());
+			if (historyScope == HistoryScope.ALL_BRANCHES) {
+				for (Ref branch : repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
+					if (branch.getObjectId() != null && !tips.contains(branch.getObjectId())) tips.add(branch.getObjectId());
 				}
 			}
-			if (revWalk != null) {
+			for (ObjectId tip : tips) {
 				try {
-					revWalk.dispose();
-				} catch (Exception e) {
-					System.err.println("Error disposing RevWalk object");
-					e.printStackTrace();
+					walk.markStart(walk.parseCommit(tip));
+				} catch (IncorrectObjectTypeException e) {
+					// A branch pointing at something other than a commit
 				}
 			}
-			if (treeWalk != null) {
+			if (baseCommitId != null) {
 				try {
-					treeWalk.close();
-				} catch (Exception e) {
-					System.err.println("Error closing TreeWalk object");
-					e.printStackTrace();
+					walk.markUninteresting(walk.parseCommit(baseCommitId));
+				} catch (MissingObjectException e) {
+					log.println("The commit processed last time is missing, looking at the whole history");
 				}
 			}
+
+			// Checkpoints only apply to the same walk, which the tips decide
+			String walkName = tips.size() == 1 ? tips.get(0).name() : new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, tips.stream().map(ObjectId::name).sorted().collect(Collectors.joining("\n")).getBytes(StandardCharsets.UTF_8)).name();
+			long entriesToSkip = progress != null ? progress.getEntriesToSkip(walkName) : 0;
+			if (progress != null) progress.startCommit(walkName);
+			if (entriesToSkip > 0) log.println("Resuming after " + entriesToSkip + " files processed by an earlier run");
+			long entry = -1;
+			long commits = 0;
+
+			BlobBatch batch = new BlobBatch(blobBatchSize);
+			BlobBatch.Processor processor = (reader, blobId, path) -> processBlob(reader, blobId, path, labelPrefix, context, tally, log);
+
+			long walkStarted = System.nanoTime();
+			RevCommit commit;
+			while ((commit = walk.next()) != null) {
+				commits++;
+				RevObject object;
+				while ((object = walk.nextObject()) != null) { // Objects of this commit's tree that no earlier commit had
+					if (object.getType() != Constants.OBJ_BLOB || !walk.getPathString().endsWith(sourceFileSuffix)) continue;
+					walkStarted = stages.treeWalk.recordSince(walkStarted);
+					stages.entriesWalked.increment();
+					entry++;
+					if (entry < entriesToSkip) {
+						if (progress != null) progress.setEntries(entry + 1);
+						continue;
+					}
+
+					batch.add(object, commit.name() + ":" + walk.getPathString());
+					if (batch.isFull()) {
+						batch.process(repository, walk.getObjectReader(), context.getBlobHelpers(), context.getBlobHelperCount(), processor);
+						batch.clear();
+						if (progress != null) progress.setEntries(entry + 1); // Every entry up to this one was dealt with
+						walkStarted = System.nanoTime();
+					}
+				}
+			}
+			batch.process(repository, walk.getObjectReader(), context.getBlobHelpers(), context.getBlobHelperCount(), processor);
+			if (progress != null) progress.setEntries(entry + 1);
+
+			log.println("Walked " + commits + " commit" + (commits == 1 ? "" : "s") + " on " + tips.size() + " branch" + (tips.size() == 1 ? "" : "es") + ", with " + (entry + 1) + " distinct file version" + (entry == 0 ? "" : "s"));
+			return logTally(tally, log);
 		}
+	}
 
+	/**
+	 * Prints what processing a repository came to.
+	 * @return How many files were stored.
+	 */
+	static int logTally(Tally tally, TaggedLog log) {
+		int filesFound = tally.filesFound.intValue();
+		long blobsKnown = tally.blobsKnown.sum();
+		long nearDuplicatesSkipped = tally.nearDuplicates.sum();
+		log.println("Acquired a total of " + filesFound + " file" + (filesFound == 1 ? "" : "s") + " (" + formatBytes(tally.bytesFound.sum()) + ")" + (blobsKnown > 0 ? ", skipped " + blobsKnown + " already known" : "") + (nearDuplicatesSkipped > 0 ? ", skipped " + nearDuplicatesSkipped + " near-duplicate" + (nearDuplicatesSkipped == 1 ? "" : "s") : ""));
 		return filesFound;
 	}
+
+	/**
+	 * What processing a repository's files came to. Added to from several threads at once.
+	 */
+	static class Tally {
+		final LongAdder filesFound = new LongAdder();
+		final LongAdder bytesFound = new LongAdder();
+		final LongAdder blobsKnown = new LongAdder();
+		final LongAdder nearDuplicates = new LongAdder();
+	}
+
+	/**
+	 * Everything the outcomes in the blob index depend on, so that it starts over when any of it changes.
+	 */
+	static String blobIndexConfiguration() {
+		return "pre: " + preFilter + "\ncategories: " + Arrays.toString(categoryFilters)
+			+ "\nnear duplicates: " + (nearDuplicateIdentifier != null ? "within " + nearDuplicateMaxDistance + " bits" : "off");
+	}
+
+	/**
+	 * Loads a blob, runs it through the filters, and stores it if it falls into a category.
+	 * Safe to call from several threads at once, as long as each reads through its own ObjectReader.
+	 * @param labelPrefix The repository's name.
+	 */
+	static void processBlob(ObjectReader reader, ObjectId blobId, String path, String labelPrefix, ProcessingContext context, Tally tally, TaggedLog log) throws IOException {
+		SampleStore samples = context.getSamples();
+		BlobIndex blobIndex = context.getBlobIndex();
+		NearDuplicateIndex nearDuplicates = context.getNearDuplicates();
+		StageMetrics stages = context.getStageMetrics();
+
+		// Read file, unless it is too large
+		long t = System.nanoTime();
+		if (blobIndex != null && blobIndex.contains(blobId)) { // Already classified, in another repository or run
+			tally.blobsKnown.increment();
+			stages.blobsKnown.increment();
+			return;
+		}
+		BlobReader blobReader = blobReaders.get();
+		if (!blobReader.read(reader, blobId, maxFileSize)) {
+			stages.blobsTooLarge.increment();
+			return;
+		}
+		byte[] bytes = blobReader.getData(); // Must not be modified.
+		int length = blobReader.getLength();
+		t = stages.blobLoad.recordSince(t);
+		stages.blobsLoaded.increment();
+		stages.blobBytesLoaded.add(length);
+
+		FileContent fileContent = fileContents.get();
+		fileContent.reset(bytes, 0, length); // Assuming UTF-8 encoding, only decoded if a filter needs the text
+		String category = null;
+		boolean passed = preFilter == null || preFilter.checkMatch(fileContent);
+		if (preFilter != null) stages.preFilter.recordSince(t);
+		if (passed) {
+			category = checkAgainstCategories(fileContent, stages);
+		}
+		if (category == null) {
+			stages.filesRejected.increment();
+			if (blobIndex != null) blobIndex.record(blobId, BlobIndex.REJECTED);
+			return;
+		}
+
+		if (nearDuplicates != null) {
+			t = System.nanoTime();
+			boolean nearDuplicate = nearDuplicates.checkAndAdd(category, SimHash.fingerprint(bytes, 0, length));
+			stages.nearDuplicateCheck.recordSince(t);
+			if (nearDuplicate) {
+				tally.nearDuplicates.increment();
+				stages.nearDuplicates.increment();
+				if (blobIndex != null) blobIndex.record(blobId, BlobIndex.NEAR_DUPLICATE);
+				return;
+			}
+		}
+
+		tally.filesFound.increment();
+		tally.bytesFound.add(length);
+
+		t = System.nanoTime();
+		String storedPath = samples.store(category, labelPrefix, path, blobId.name(), bytes, 0, length);
+		stages.store.recordSince(t);
+		stages.filesStored.increment();
+		stages.bytesStored.add(length);
+		if (reportIndividualFiles && !(samples instanceof WriteBehindStore)) { // Otherwise reported once written
+			log.println("Found \"" + path + "\" -> " + storedPath + " (" + formatBytes(length) + ")");
+		}
+		if (blobIndex != null && !(samples instanceof WriteBehindStore)) blobIndex.record(blobId, BlobIndex.STORED); // Otherwise recorded once written
+	}
 }
\ No newline at end of file
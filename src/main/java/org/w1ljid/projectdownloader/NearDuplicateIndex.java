@@ -0,0 +1,120 @@
+package org.w1ljid.projectdownloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.w1ljid.projectdownloader.matching.SimHashIndex;
+
+/**
+ * Remembers the SimHash fingerprints of stored files, per category, so that files that are nearly identical to an already stored one can be skipped.
+ * Fingerprints are appended to one file per category in a directory, and loaded back on initialization.
+ * Safe to use from multiple threads once initialized.
+ * @see org.w1ljid.projectdownloader.matching.SimHash
+ */
+public class NearDuplicateIndex implements AutoCloseable {
+
+	private static final String EXTENSION = ".fp";
+
+	private final File directory;
+	private final int maxDistance;
+	private final Map<String, Category> categories = new HashMap<>();
+
+
+	private static class Category {
+		final SimHashIndex index;
+		DataOutputStream out;
+
+		Category(int maxDistance) {
+			index = new SimHashIndex(maxDistance);
+		}
+	}
+
+
+	/**
+	 * @param directory Where fingerprints are stored. Created if missing.
+	 * @param maxDistance Files whose fingerprints differ in at most this many bits (out of 64) count as near-duplicates.
+	 */
+	public NearDuplicateIndex(File directory, int maxDistance) {
+		this.directory = directory;
+		this.maxDistance = maxDistance;
+	}
+
+
+	public synchronized void initialize() throws IOException {
+		Files.createDirectories(directory.toPath());
+		categories.clear();
+
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		if (files == null) return;
+
+		for (File file : files) {
+			String name = file.getName();
+			Category category = new Category(maxDistance);
+			if (file.length() % Long.BYTES != 0) {
+				try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+					raf.setLength(file.length() - file.length() % Long.BYTES); // Drop a torn last fingerprint, so that appends stay aligned.
+				}
+			}
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				while (true) {
+					category.index.add(in.readLong());
+				}
+			} catch (EOFException _e) {
+				// Read everything
+			}
+			categories.put(name.substring(0, name.length() - EXTENSION.length()), category);
+		}
+	}
+
+	/**
+	 * Number of fingerprints, over all categories.
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (Category category : categories.values()) size += category.index.size();
+		return size;
+	}
+
+	/**
+	 * Checks whether a near-duplicate of the file was seen in the category before. If not, the file's fingerprint is remembered.
+	 * @return Whether the file is a near-duplicate, and so should be skipped.
+	 */
+	public synchronized boolean checkAndAdd(String categoryName, long fingerprint) throws IOException {
+		Category category = categories.computeIfAbsent(categoryName, _name -> new Category(maxDistance));
+		if (!category.index.addIfNotNear(fingerprint)) return true;
+
+		if (category.out == null) {
+			category.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, categoryName + EXTENSION), true)));
+		}
+		category.out.writeLong(fingerprint);
+		return false;
+	}
+
+	public synchronized void flush() throws IOException {
+		for (Category category : categories.values()) {
+			if (category.out != null) category.out.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (Category category : categories.values()) {
+			if (category.out != null) {
+				category.out.close();
+				category.out = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.w1ljid.projectdownloader;
+
+import java.util.concurrent.ExecutorService;
+
+import org.w1ljid.projectdownloader.discovery.YieldEstimator;
+import org.w1ljid.projectdownloader.git.GitHubCredentials;
+import org.w1ljid.projectdownloader.storage.SampleStore;
+import org.w1ljid.projectdownloader.util.TokenBucket;
+
+/**
+ * Everything that is shared by the repositories processed during a run. The optional parts are null when turned off.
+ */
+public class ProcessingContext {
+
+	private final GitHubCredentials credentials;
+	private final SampleStore samples;
+	private final BlobIndex blobIndex;
+	private final NearDuplicateIndex nearDuplicates;
+	private final TokenBucket gitThrottle;
+	private final YieldEstimator yieldEstimator;
+	private final Checkpoint checkpoint;
+	private final StageMetrics stageMetrics;
+	private final ExecutorService blobHelpers;
+	private final int blobHelperCount;
+	private final CachedRepositories repositoryCache;
+
+
+	public ProcessingContext(GitHubCredentials credentials, SampleStore samples, BlobIndex blobIndex, NearDuplicateIndex nearDuplicates, TokenBucket gitThrottle, YieldEstimator yieldEstimator, Checkpoint checkpoint, StageMetrics stageMetrics, ExecutorService blobHelpers, int blobHelperCount, CachedRepositories repositoryCache) {
+		this.credentials = credentials;
+		this.samples = samples;
+		this.blobIndex = blobIndex;
+		this.nearDuplicates = nearDuplicates;
+		this.gitThrottle = gitThrottle;
+		this.yieldEstimator = yieldEstimator;
+		this.checkpoint = checkpoint;
+		this.stageMetrics = stageMetrics;
+		this.blobHelpers = blobHelpers;
+		this.blobHelperCount = blobHelperCount;
+		this.repositoryCache = repositoryCache;
+	}
+
+
+	/** May be null, public repositories don't need credentials. */
+	public GitHubCredentials getCredentials() { return credentials; }
+
+	/** Where matching files go. */
+	public SampleStore getSamples() { return samples; }
+
+	/** May be null. */
+	public BlobIndex getBlobIndex() { return blobIndex; }
+
+	/** May be null. */
+	public NearDuplicateIndex getNearDuplicates() { return nearDuplicates; }
+
+	/** Paces git transfers, separately from API requests. May be null. */
+	public TokenBucket getGitThrottle() { return gitThrottle; }
+
+	/** Decides which repositories aren't worth fetching. May be null. */
+	public YieldEstimator getYieldEstimator() { return yieldEstimator; }
+
+	/** Keeps track of the repositories being processed, for resuming. May be null. */
+	public Checkpoint getCheckpoint() { return checkpoint; }
+
+	/** Where the time of every stage, and the number of files going through it, is recorded. */
+	public StageMetrics getStageMetrics() { return stageMetrics; }
+
+	/** Threads that help process the files of a repository, shared by all repositories. May be null. */
+	public ExecutorService getBlobHelpers() { return blobHelpers; }
+
+	/** How many threads {@link #getBlobHelpers()} has. */
+	public int getBlobHelperCount() { return blobHelperCount; }
+
+	/** Where fetched repositories are kept between runs. May be null. */
+	public CachedRepositories getRepositoryCache() { return repositoryCache; }
+
+}
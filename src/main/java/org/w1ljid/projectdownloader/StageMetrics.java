@@ -0,0 +1,78 @@
+package org.w1ljid.projectdownloader;
+
+import org.w1ljid.projectdownloader.filters.LabeledFilter;
+import org.w1ljid.projectdownloader.util.Metrics;
+import org.w1ljid.projectdownloader.util.Metrics.Counter;
+import org.w1ljid.projectdownloader.util.Metrics.Histogram;
+
+/**
+ * The metrics of processing a repository, registered up front so that recording them needs no lookups.
+ * Each stage gets a latency histogram, labeled with the stage's name; every category filter gets one too, labeled with its category.
+ */
+public class StageMetrics {
+
+	private static final String PREFIX = "projectdownloader_";
+
+	public final Histogram lsRemote;
+	public final Histogram fetch;
+	public final Histogram treeWalk; // Per entry
+	public final Histogram blobLoad;
+	public final Histogram preFilter;
+	public final Histogram nearDuplicateCheck;
+	public final Histogram store;
+	public final Histogram repository; // Whole repositories, from the start of processing to the end
+	private final Histogram[] categories; // Parallel to the category filters
+
+	public final Counter repositoriesProcessed;
+	public final Counter repositoriesFailed;
+	public final Counter fetchedBytes;
+	public final Counter entriesWalked;
+	public final Counter blobsKnown;
+	public final Counter blobsTooLarge;
+	public final Counter blobsLoaded;
+	public final Counter blobBytesLoaded;
+	public final Counter filesRejected;
+	public final Counter nearDuplicates;
+	public final Counter filesStored;
+	public final Counter bytesStored;
+
+
+	public StageMetrics(Metrics metrics, LabeledFilter[] categoryFilters) {
+		String stageHelp = "Time spent in each stage of processing a repository. tree_walk, blob_load and the filters are per file.";
+		lsRemote = metrics.histogram(PREFIX + "stage_seconds", stageHelp, "stage", "ls_remote");
+		fetch = metrics.histogram(PREFIX + "stage_seconds", stageHelp, "stage", "fetch");
+		treeWalk = metrics.histogram(PREFIX + "stage_seconds", stageHelp, "stage", "tree_walk");
+		blobLoad = metrics.histogram(PREFIX + "stage_seconds", stageHelp, "stage", "blob_load");
+		preFilter = metrics.histogram(PREFIX + "stage_seconds", stageHelp, "stage", "prefilter");
+		nearDuplicateCheck = metrics.histogram(PREFIX + "stage_seconds", stageHelp, "stage", "near_duplicate_check");
+		store = metrics.histogram(PREFIX + "stage_seconds", stageHelp, "stage", "store");
+		repository = metrics.histogram(PREFIX + "stage_seconds", stageHelp, "stage", "repository");
+
+		categories = new Histogram[categoryFilters.length];
+		for (int i = 0; i < categoryFilters.length; i++) {
+			categories[i] = metrics.histogram(PREFIX + "category_filter_seconds", "Time spent in each category's filter, per file it was run on.", "category", categoryFilters[i].getLabel());
+		}
+
+		repositoriesProcessed = metrics.counter(PREFIX + "repositories_processed_total", "Repositories processed, whether or not anything was found in them.");
+		repositoriesFailed = metrics.counter(PREFIX + "repositories_failed_total", "Repositories whose processing ended with an error.");
+		fetchedBytes = metrics.counter(PREFIX + "fetched_bytes_total", "Bytes of pack files fetched.");
+		entriesWalked = metrics.counter(PREFIX + "entries_walked_total", "Tree entries that passed the path filter.");
+		blobsKnown = metrics.counter(PREFIX + "blobs_known_total", "Blobs skipped because the blob index already classified them.");
+		blobsTooLarge = metrics.counter(PREFIX + "blobs_too_large_total", "Blobs skipped for being larger than the file size limit.");
+		blobsLoaded = metrics.counter(PREFIX + "blobs_loaded_total", "Blobs read and run through the filters.");
+		blobBytesLoaded = metrics.counter(PREFIX + "blob_bytes_loaded_total", "Bytes of the blobs read.");
+		filesRejected = metrics.counter(PREFIX + "files_rejected_total", "Files that matched no category.");
+		nearDuplicates = metrics.counter(PREFIX + "near_duplicates_total", "Files skipped as near-duplicates of stored ones.");
+		filesStored = metrics.counter(PREFIX + "files_stored_total", "Files stored as samples.");
+		bytesStored = metrics.counter(PREFIX + "bytes_stored_total", "Bytes of the files stored.");
+	}
+
+
+	/**
+	 * @param index The category filter's index.
+	 */
+	public Histogram category(int index) {
+		return categories[index];
+	}
+
+}
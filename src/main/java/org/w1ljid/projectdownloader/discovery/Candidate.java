@@ -0,0 +1,66 @@
+package org.w1ljid.projectdownloader.discovery;
+
+import java.io.File;
+
+import org.kohsuke.github.GHRepository;
+
+/**
+ * A repository that could be processed, with the metadata needed to decide whether and how to fetch it.
+ */
+public class Candidate {
+
+	private final String fullName;
+	private final String transportUrl;
+	private final long size;
+	private final String defaultBranch;
+	private final GHRepository repository;
+
+
+	/**
+	 * @param size Approximate size in bytes, or -1 if unknown.
+	 * @param defaultBranch Name of the default branch (like "main"), or null if unknown.
+	 */
+	public Candidate(String fullName, String transportUrl, long size, String defaultBranch) {
+		this(fullName, transportUrl, size, defaultBranch, null);
+	}
+
+	private Candidate(String fullName, String transportUrl, long size, String defaultBranch, GHRepository repository) {
+		this.fullName = fullName;
+		this.transportUrl = transportUrl;
+		this.size = size;
+		this.defaultBranch = defaultBranch;
+		this.repository = repository;
+	}
+
+	/**
+	 * Takes the metadata that came with a search result, without any more requests.
+	 */
+	public static Candidate of(GHRepository repo) {
+		return new Candidate(repo.getFullName(), repo.getHttpTransportUrl(), repo.getSize() * 1024L, repo.getDefaultBranch(), repo);
+	}
+
+
+	/** For example, Dit05/GitHubProjectDownloader2 (not an URL) */
+	public String getFullName() { return fullName; }
+
+	/** URL to fetch from. */
+	public String getTransportUrl() { return transportUrl; }
+
+	/** Approximate size in bytes, as reported by GitHub, or -1 if unknown. */
+	public long getSize() { return size; }
+
+	/** May be null. */
+	public String getDefaultBranch() { return defaultBranch; }
+
+	/** The search result this candidate came from, for further API requests. May be null. */
+	public GHRepository getRepository() { return repository; }
+
+	/** Whether this is a repository or bundle on the disk, which is read in place instead of fetched. Its transport URL is an absolute path then. */
+	public boolean isLocal() { return transportUrl != null && new File(transportUrl).isAbsolute(); }
+
+	@Override
+	public String toString() {
+		return fullName;
+	}
+
+}
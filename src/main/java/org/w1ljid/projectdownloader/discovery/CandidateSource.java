@@ -0,0 +1,34 @@
+package org.w1ljid.projectdownloader.discovery;
+
+import java.io.IOException;
+
+/**
+ * Finds repositories to process, in the background.
+ */
+public interface CandidateSource extends AutoCloseable {
+
+	/**
+	 * Starts looking for candidates.
+	 */
+	void start();
+
+	/**
+	 * Waits for the next candidate.
+	 * @return The next candidate, or null once there are no more.
+	 * @throws IOException If looking for candidates failed. Every candidate found before the failure is returned first.
+	 */
+	Candidate take() throws InterruptedException, IOException;
+
+	/**
+	 * Reports that a candidate was dealt with (processed or deliberately skipped), so that the source doesn't need to find it again in a later run.
+	 * Candidates that failed shouldn't be reported.
+	 */
+	void finished(Candidate candidate);
+
+	/**
+	 * Stops looking for candidates.
+	 */
+	@Override
+	void close();
+
+}
@@ -0,0 +1,80 @@
+package org.w1ljid.projectdownloader.discovery;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Finds repositories on the disk instead of on GitHub: bare repositories (like mirrors), working copies and .bundle files, anywhere under a directory.
+ * Directories are searched in name order, and lazily, so that the first repositories are processed while the rest of the tree is still unexplored.
+ * Each candidate is named after its path relative to the directory, without ".git" or ".bundle", so mirrors laid out as owner/name keep GitHub's names.
+ */
+public class LocalRepositories implements CandidateSource {
+
+	public static final String BUNDLE_SUFFIX = ".bundle";
+
+	private final File root;
+	private final Deque<File> pending = new ArrayDeque<>(); // Directories and bundles not looked at yet, the next one first
+
+
+	public LocalRepositories(File root) {
+		this.root = root;
+	}
+
+
+	@Override
+	public void start() {
+		pending.push(root);
+	}
+
+	@Override
+	public Candidate take() throws IOException {
+		while (!pending.isEmpty()) {
+			File file = pending.pop();
+			if (file.isFile()) {
+				if (file.getName().endsWith(BUNDLE_SUFFIX)) return candidate(file, file.length()); // Unpacked into memory, so its size matters
+				continue;
+			}
+
+			if (RepositoryCache.FileKey.isGitRepository(file, FS.DETECTED) || RepositoryCache.FileKey.isGitRepository(new File(file, ".git"), FS.DETECTED)) {
+				return candidate(file, -1); // Read in place, not inside of it
+			}
+
+			File[] children = file.listFiles();
+			if (children == null) {
+				if (file == root) throw new IOException("Can't list \"" + root.getPath() + "\"");
+				continue;
+			}
+			Arrays.sort(children);
+			for (int i = children.length - 1; i >= 0; i--) {
+				if (children[i].isDirectory() || children[i].getName().endsWith(BUNDLE_SUFFIX)) pending.push(children[i]);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void finished(Candidate candidate) {
+		// Nothing to remember, the ignore list skips what was already processed.
+	}
+
+	@Override
+	public void close() {
+		pending.clear();
+	}
+
+
+	private Candidate candidate(File file, long size) {
+		String name = root.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+		if (name.isEmpty()) name = file.getAbsoluteFile().getName(); // The directory itself is a repository
+		if (name.endsWith(BUNDLE_SUFFIX)) name = name.substring(0, name.length() - BUNDLE_SUFFIX.length());
+		else if (name.endsWith(".git")) name = name.substring(0, name.length() - ".git".length());
+		return new Candidate(name, file.getAbsolutePath(), size, null);
+	}
+
+}
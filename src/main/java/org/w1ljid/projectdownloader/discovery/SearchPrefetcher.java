@@ -0,0 +1,84 @@
+package org.w1ljid.projectdownloader.discovery;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.PagedIterable;
+
+/**
+ * Pages through search results on a background thread, ahead of whoever takes the candidates, so that waiting for the next page overlaps with
+ * processing the previous ones. At most a fixed number of candidates are buffered; once that many are waiting, the thread stops requesting pages
+ * until some are taken.
+ */
+public class SearchPrefetcher implements CandidateSource {
+
+	private static final Candidate END = new Candidate(null, null, -1, null);
+
+	private final PagedIterable<GHRepository> results;
+	private final BlockingQueue<Candidate> queue;
+	private final Thread thread;
+	private volatile Exception failure;
+	private boolean ended;
+
+
+	/**
+	 * @param capacity How many candidates may be buffered. A page or two of results is plenty.
+	 */
+	public SearchPrefetcher(PagedIterable<GHRepository> results, int capacity) {
+		this.results = results;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.thread = new Thread(this::run, "Search prefetcher");
+		thread.setDaemon(true);
+	}
+
+
+	@Override
+	public void start() {
+		thread.start();
+	}
+
+	private void run() {
+		try {
+			for (GHRepository repo : results) {
+				queue.put(Candidate.of(repo));
+			}
+		} catch (InterruptedException _e) {
+			return; // Closed, nobody is waiting
+		} catch (Exception e) {
+			failure = e; // Reported by take(), after the candidates that were found before it
+		}
+
+		try {
+			queue.put(END);
+		} catch (InterruptedException _e) {
+			// Closed
+		}
+	}
+
+	@Override
+	public Candidate take() throws InterruptedException, IOException {
+		if (ended) return null;
+
+		Candidate candidate = queue.take();
+		if (candidate != END) return candidate;
+
+		ended = true;
+		Exception e = failure;
+		if (e instanceof IOException) throw (IOException) e;
+		if (e != null) throw new IOException("Search failed", e);
+		return null;
+	}
+
+	@Override
+	public void finished(Candidate candidate) {
+		// Every run starts the search over, the ignore list has to skip what was already processed.
+	}
+
+	@Override
+	public void close() {
+		thread.interrupt();
+	}
+
+}
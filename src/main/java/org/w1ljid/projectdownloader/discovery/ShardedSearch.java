@@ -0,0 +1,197 @@
+package org.w1ljid.projectdownloader.discovery;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.PagedIterator;
+import org.kohsuke.github.PagedSearchIterable;
+import org.w1ljid.projectdownloader.IgnoreList;
+import org.w1ljid.projectdownloader.util.TaggedLog;
+
+/**
+ * Searches for repositories in many smaller searches, to get past the 1000 results GitHub returns for a single search.
+ * The range of creation times to search is cut in halves until every piece (shard) matches fewer than 1000 repositories, then every shard is
+ * listed. Several shards are searched at the same time, into a shared bounded queue. Once every candidate of a shard was reported
+ * {@link #finished(Candidate)}, the shard is remembered as done, so that a later run can skip it. Shards are halves of a fixed span of time,
+ * so that every run cuts the same shards; shards that reach past the start of the run are never remembered, as repositories may still be created in them.
+ */
+public class ShardedSearch implements CandidateSource {
+
+	private static final int RESULT_CAP = 1000; // GitHub returns at most this many results for a search.
+	private static final int PAGE_SIZE = 100;
+	private static final long SPAN = 1L << 31; // Seconds, about 68 years
+	private static final Object END = new Object();
+
+	private final GitHub github;
+	private final String language;
+	private final long from;
+	private final long to;
+	private final long startedAt;
+	private final IgnoreList doneShards;
+	private final ExecutorService searchers;
+	private final BlockingQueue<Object> queue;
+	private final AtomicInteger unfinishedShards = new AtomicInteger();
+	private final Map<Candidate, Shard> shardsOfCandidates = new ConcurrentHashMap<>();
+	private final TaggedLog log = new TaggedLog("search");
+	private volatile Exception failure;
+	private volatile boolean closed;
+	private boolean ended;
+
+
+	/**
+	 * Repositories created in an inclusive range of seconds.
+	 */
+	private class Shard {
+		final long from;
+		final long to;
+		final AtomicInteger unfinished = new AtomicInteger(); // Candidates not reported finished yet
+		volatile boolean listed;
+		final AtomicBoolean done = new AtomicBoolean();
+
+		Shard(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		String key() {
+			return language + " " + from + ".." + to;
+		}
+
+		String range() {
+			return Instant.ofEpochSecond(from) + ".." + Instant.ofEpochSecond(to);
+		}
+
+		/**
+		 * Remembers the shard as done once it was fully listed and every candidate was finished.
+		 */
+		void checkDone() {
+			if (!listed || unfinished.get() > 0 || !done.compareAndSet(false, true)) return;
+			if (doneShards != null && to < startedAt) {
+				doneShards.ignore(key());
+				try {
+					doneShards.flush();
+				} catch (IOException e) {
+					log.error("Failed to remember shard " + range() + " as done", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param from Earliest creation time to search from. Runs that should skip each other's shards must use the same one.
+	 * @param to Latest creation time to search until, usually now.
+	 * @param threads How many shards are searched at the same time.
+	 * @param capacity How many candidates may be buffered.
+	 * @param doneShards Where finished shards are remembered, may be null.
+	 */
+	public ShardedSearch(GitHub github, String language, Instant from, Instant to, int threads, int capacity, IgnoreList doneShards) {
+		this.github = github;
+		this.language = language;
+		this.from = from.getEpochSecond();
+		this.to = to.getEpochSecond();
+		this.startedAt = Instant.now().getEpochSecond();
+		this.doneShards = doneShards;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.searchers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "Shard searcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+
+	@Override
+	public void start() {
+		submit(new Shard(from, from + SPAN - 1));
+	}
+
+	private void submit(Shard shard) {
+		unfinishedShards.incrementAndGet();
+		searchers.execute(() -> {
+			try {
+				search(shard);
+			} catch (InterruptedException _e) {
+				return; // Closed
+			} catch (Exception e) {
+				if (closed) return; // Interrupted inside github-api, which wraps the interruption
+				log.error("Failed to search shard " + shard.range() + ", it will be searched again next time", e);
+				failure = e;
+			}
+
+			if (unfinishedShards.decrementAndGet() == 0) {
+				try {
+					queue.put(END);
+				} catch (InterruptedException _e) {
+					// Closed
+				}
+			}
+		});
+	}
+
+	private void search(Shard shard) throws InterruptedException {
+		if (shard.from > to) return; // Entirely in the future
+		if (doneShards != null && doneShards.isIgnored(shard.key())) return;
+
+		PagedSearchIterable<GHRepository> results = github.searchRepositories().language(language).created(shard.range()).list().withPageSize(PAGE_SIZE);
+		PagedIterator<GHRepository> iterator = results.iterator();
+		int total = iterator.hasNext() ? results.getTotalCount() : 0; // The first page is fetched once, for both the count and the listing.
+
+		if (total >= RESULT_CAP) {
+			if (shard.to > shard.from) {
+				long middle = shard.from + (shard.to - shard.from) / 2;
+				submit(new Shard(shard.from, middle));
+				submit(new Shard(middle + 1, shard.to));
+				return;
+			}
+			log.println("Shard " + shard.range() + " matches " + total + " repositories and can't be split further, only the first " + RESULT_CAP + " are listed");
+		}
+
+		while (iterator.hasNext()) {
+			Candidate candidate = Candidate.of(iterator.next());
+			shard.unfinished.incrementAndGet();
+			shardsOfCandidates.put(candidate, shard);
+			queue.put(candidate);
+		}
+		shard.listed = true;
+		shard.checkDone();
+	}
+
+	@Override
+	public Candidate take() throws InterruptedException, IOException {
+		if (ended) return null;
+
+		Object next = queue.take();
+		if (next != END) return (Candidate) next;
+
+		ended = true;
+		Exception e = failure;
+		if (e instanceof IOException) throw (IOException) e;
+		if (e != null) throw new IOException("Some shards failed", e);
+		return null;
+	}
+
+	@Override
+	public void finished(Candidate candidate) {
+		Shard shard = shardsOfCandidates.remove(candidate);
+		if (shard == null) return;
+		shard.unfinished.decrementAndGet();
+		shard.checkDone();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		searchers.shutdownNow();
+	}
+
+}
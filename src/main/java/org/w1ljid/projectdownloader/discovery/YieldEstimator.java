@@ -0,0 +1,124 @@
+package org.w1ljid.projectdownloader.discovery;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kohsuke.github.GHTree;
+import org.kohsuke.github.GHTreeEntry;
+import org.kohsuke.github.HttpException;
+
+/**
+ * Guesses how many useful files a repository has from the API's listing of its tree, so that repositories without any can be skipped before
+ * anything is fetched. Listing a tree costs a single API request, no matter how large the repository is.
+ * Also keeps statistics on how well the guesses work out. Safe to use from multiple threads.
+ */
+public class YieldEstimator {
+
+	private final String pathSuffix;
+	private final long maxFileSize;
+	private final int minFiles;
+
+	private final AtomicLong checked = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong bytesSkipped = new AtomicLong();
+	private final AtomicLong fetched = new AtomicLong();
+	private final AtomicLong fetchedWithFinds = new AtomicLong();
+
+
+	/**
+	 * What a tree listing says about a repository.
+	 */
+	public static class Estimate {
+		private final int files;
+		private final long bytes;
+		private final boolean truncated;
+
+		Estimate(int files, long bytes, boolean truncated) {
+			this.files = files;
+			this.bytes = bytes;
+			this.truncated = truncated;
+		}
+
+		/** Files with the right suffix that aren't too large. */
+		public int getFiles() { return files; }
+
+		/** Total size of those files. */
+		public long getBytes() { return bytes; }
+
+		/** Whether GitHub only listed part of the tree (because it is huge). The counts are then too low. */
+		public boolean isTruncated() { return truncated; }
+	}
+
+
+	/**
+	 * @param pathSuffix Files whose path ends with this are counted.
+	 * @param maxFileSize Larger files aren't counted, as they would be skipped anyway.
+	 * @param minFiles Repositories with fewer files than this are skipped.
+	 */
+	public YieldEstimator(String pathSuffix, long maxFileSize, int minFiles) {
+		this.pathSuffix = pathSuffix;
+		this.maxFileSize = maxFileSize;
+		this.minFiles = minFiles;
+	}
+
+
+	/**
+	 * Lists the candidate's default branch. An empty repository, which GitHub refuses to list with HTTP 409, has no files.
+	 * @return The estimate, or null if the candidate didn't come with enough metadata to list its tree.
+	 * @throws IOException If listing the tree failed. The repository is best fetched anyway.
+	 */
+	public Estimate estimate(Candidate candidate) throws IOException {
+		if (candidate.getRepository() == null || candidate.getDefaultBranch() == null) return null;
+
+		GHTree tree;
+		try {
+			tree = candidate.getRepository().getTreeRecursive(candidate.getDefaultBranch(), 1);
+		} catch (HttpException e) {
+			if (e.getResponseCode() != 409) throw e;
+			checked.incrementAndGet();
+			return new Estimate(0, 0, false); // "Git Repository is empty."
+		}
+		int files = 0;
+		long bytes = 0;
+		for (GHTreeEntry entry : tree.getTree()) {
+			if ("blob".equals(entry.getType()) && entry.getPath().endsWith(pathSuffix) && entry.getSize() <= maxFileSize) {
+				files++;
+				bytes += entry.getSize();
+			}
+		}
+		checked.incrementAndGet();
+		return new Estimate(files, bytes, tree.isTruncated());
+	}
+
+	/**
+	 * Decides whether the repository is worth fetching, and counts it as skipped if not.
+	 */
+	public boolean isWorthFetching(Candidate candidate, Estimate estimate) {
+		if (estimate.isTruncated() || estimate.getFiles() >= minFiles) return true;
+
+		skipped.incrementAndGet();
+		if (candidate.getSize() > 0) bytesSkipped.addAndGet(candidate.getSize());
+		return false;
+	}
+
+	/**
+	 * Records how a repository that was fetched after all turned out.
+	 */
+	public void recordFetched(int filesFound) {
+		fetched.incrementAndGet();
+		if (filesFound > 0) fetchedWithFinds.incrementAndGet();
+	}
+
+	public long getChecked() { return checked.get(); }
+
+	public long getSkipped() { return skipped.get(); }
+
+	/** Sum of the sizes GitHub reported for the skipped repositories, roughly what wasn't transferred. */
+	public long getBytesSkipped() { return bytesSkipped.get(); }
+
+	public long getFetched() { return fetched.get(); }
+
+	/** Fetched repositories in which something was found. */
+	public long getFetchedWithFinds() { return fetchedWithFinds.get(); }
+
+}
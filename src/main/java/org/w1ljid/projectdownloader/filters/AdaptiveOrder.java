@@ -0,0 +1,100 @@
+package org.w1ljid.projectdownloader.filters;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Learns which order to evaluate a composite filter's inner filters in, so that the result is decided as cheaply as possible.
+ * About one evaluation in {@value #SAMPLE_INTERVAL} runs every inner filter and measures how long each took and whether it passed.
+ * After every {@value #SAMPLES_PER_REORDER} such samples, the inner filters are sorted by their expected cost per decision:
+ * for "all must pass" that is cost / (1 - pass rate), for "any may pass" it is cost / pass rate. This is the order that minimizes the
+ * expected cost when the inner filters are independent of each other. Old samples lose half their weight now and then, so the order follows changes in the input.
+ * Safe to use from multiple threads.
+ */
+public class AdaptiveOrder {
+
+	static final int SAMPLE_INTERVAL = 64;
+	static final int SAMPLES_PER_REORDER = 256;
+	private static final long DECAY_AFTER = 1 << 14; // Samples
+
+	private final boolean conjunction;
+	private final double[] costNanos; // Sums over the samples
+	private final double[] passes;
+	private double samples;
+	private int samplesSinceReorder;
+	private volatile int[] order;
+
+
+	/**
+	 * @param size How many inner filters there are.
+	 * @param conjunction Whether every inner filter has to pass (an "and"), rather than any of them (an "or").
+	 */
+	public AdaptiveOrder(int size, boolean conjunction) {
+		this.conjunction = conjunction;
+		this.costNanos = new double[size];
+		this.passes = new double[size];
+		int[] declared = new int[size];
+		for (int i = 0; i < size; i++) declared[i] = i;
+		this.order = declared;
+	}
+
+
+	/**
+	 * @return The indices of the inner filters, in the order to evaluate them in. Must not be modified.
+	 */
+	public int[] getOrder() {
+		return order;
+	}
+
+	/**
+	 * @return Whether the caller should evaluate every inner filter this time, and {@link #record(long[], boolean[])} the results.
+	 */
+	public boolean shouldSample() {
+		return ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) == 0;
+	}
+
+	/**
+	 * Records an evaluation of every inner filter.
+	 * @param nanos How long each inner filter took, by index.
+	 * @param passed Whether each inner filter passed, by index.
+	 */
+	public synchronized void record(long[] nanos, boolean[] passed) {
+		for (int i = 0; i < costNanos.length; i++) {
+			costNanos[i] += nanos[i];
+			if (passed[i]) passes[i]++;
+		}
+		samples++;
+
+		if (samples >= DECAY_AFTER) {
+			for (int i = 0; i < costNanos.length; i++) {
+				costNanos[i] /= 2;
+				passes[i] /= 2;
+			}
+			samples /= 2;
+		}
+
+		if (++samplesSinceReorder >= SAMPLES_PER_REORDER) {
+			samplesSinceReorder = 0;
+			reorder();
+		}
+	}
+
+	private void reorder() {
+		double[] rank = new double[costNanos.length];
+		for (int i = 0; i < rank.length; i++) {
+			double passRate = (passes[i] + 0.5) / (samples + 1); // Never exactly 0 or 1
+			double decisive = conjunction ? 1 - passRate : passRate; // How often this inner filter alone decides the result
+			rank[i] = costNanos[i] / samples / decisive;
+		}
+
+		Integer[] sorted = new Integer[rank.length];
+		for (int i = 0; i < sorted.length; i++) sorted[i] = i;
+		Arrays.sort(sorted, Comparator.comparingDouble(i -> rank[i])); // Stable, ties keep the declared order
+
+		int[] newOrder = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) newOrder[i] = sorted[i];
+		order = newOrder;
+	}
+
+}
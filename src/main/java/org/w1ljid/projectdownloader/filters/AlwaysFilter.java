@@ -18,4 +18,9 @@ public final class AlwaysFilter extends FileFilter {
 		return true;
 	}
 
+	@Override
+	public String toString() {
+		return "Always";
+	}
+
 }
@@ -1,23 +1,91 @@
 package org.w1ljid.projectdownloader.filters;
 
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.w1ljid.projectdownloader.FileContent;
 import org.w1ljid.projectdownloader.FileFilter;
 
 /**
  * Matches a file only when every inner filter matches it.
+ * With {@link FilterOrder#ADAPTIVE}, the inner filters are evaluated in the order that rejects files the fastest.
  */
 public class AndFilter extends FileFilter {
 
 	private final FileFilter[] innerFilters;
+	private final AdaptiveOrder order; // Null for the declared order
 
 	public AndFilter(FileFilter... innerFilters) {
+		this(FilterOrder.DECLARED, innerFilters);
+	}
+
+	public AndFilter(FilterOrder order, FileFilter... innerFilters) {
 		this.innerFilters = innerFilters;
+		this.order = order == FilterOrder.ADAPTIVE ? new AdaptiveOrder(innerFilters.length, true) : null;
 	}
 
 	@Override
 	public boolean checkMatch(String fileContent) {
-		for (FileFilter filter : innerFilters) {
-			if (!filter.checkMatch(fileContent)) return false;
+		if (order == null) {
+			for (FileFilter filter : innerFilters) {
+				if (!filter.checkMatch(fileContent)) return false;
+			}
+			return true;
+		}
+		if (order.shouldSample()) return checkSampled(fileContent, null);
+
+		for (int i : order.getOrder()) {
+			if (!innerFilters[i].checkMatch(fileContent)) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean checkMatch(FileContent content) {
+		if (order == null) {
+			for (FileFilter filter : innerFilters) {
+				if (!filter.checkMatch(content)) return false;
+			}
+			return true;
+		}
+		if (order.shouldSample()) return checkSampled(null, content);
+
+		for (int i : order.getOrder()) {
+			if (!innerFilters[i].checkMatch(content)) return false;
 		}
 		return true;
 	}
+
+	/**
+	 * Evaluates every inner filter, timing each, and records the results for the adaptive order. Exactly one of the arguments is given.
+	 * They run in the current order, so that work the file content caches (decoding, the keyword scan) is charged to the filter that would pay for it.
+	 */
+	private boolean checkSampled(String text, FileContent content) {
+		long[] nanos = new long[innerFilters.length];
+		boolean[] passed = new boolean[innerFilters.length];
+		boolean result = true;
+		long t = System.nanoTime();
+		for (int i : order.getOrder()) {
+			passed[i] = content != null ? innerFilters[i].checkMatch(content) : innerFilters[i].checkMatch(text);
+			long now = System.nanoTime();
+			nanos[i] = now - t;
+			t = now;
+			result &= passed[i];
+		}
+		order.record(nanos, passed);
+		return result;
+	}
+
+	@Override
+	public void collectKeywords(Collection<String> keywords) {
+		for (FileFilter filter : innerFilters) {
+			filter.collectKeywords(keywords);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "And" + Arrays.toString(innerFilters); // Declared order, the results don't depend on the adaptive one
+	}
+
 }
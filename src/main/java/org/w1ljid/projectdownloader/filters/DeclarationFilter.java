@@ -0,0 +1,85 @@
+package org.w1ljid.projectdownloader.filters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.w1ljid.projectdownloader.FileContent;
+import org.w1ljid.projectdownloader.FileFilter;
+import org.w1ljid.projectdownloader.matching.RequiredLiterals;
+import org.w1ljid.projectdownloader.matching.TypeDeclaration;
+
+/**
+ * Filter that matches files declaring a type whose whole name matches a regex, optionally only of some kinds, and optionally only if it extends or
+ * implements a type whose simple name matches another regex. Only actual declarations count, not mentions in comments or strings.
+ * Like {@link RegexFilter}, files missing the strings the regexes need are ruled out by the shared keyword scan, before they are tokenized.
+ */
+public class DeclarationFilter extends FileFilter {
+
+	private final Pattern name;
+	private final Pattern supertype; // May be null
+	private final EnumSet<TypeDeclaration.Kind> kinds;
+	private final String[][] requiredLiterals; // [clause][alternative]
+
+	/**
+	 * @param kinds The kinds of types that count, or none for all of them.
+	 */
+	public DeclarationFilter(String namePattern, TypeDeclaration.Kind... kinds) {
+		this(namePattern, null, kinds);
+	}
+
+	/**
+	 * @param supertypePattern Regex one of the type's supertypes has to match, or null for any type.
+	 * @param kinds The kinds of types that count, or none for all of them.
+	 */
+	public DeclarationFilter(String namePattern, String supertypePattern, TypeDeclaration.Kind... kinds) {
+		this.name = Pattern.compile(namePattern);
+		this.supertype = supertypePattern != null ? Pattern.compile(supertypePattern) : null;
+		this.kinds = kinds.length > 0 ? EnumSet.of(kinds[0], kinds) : EnumSet.allOf(TypeDeclaration.Kind.class);
+
+		List<List<String>> clauses = new ArrayList<>(RequiredLiterals.of(name));
+		if (supertype != null) clauses.addAll(RequiredLiterals.of(supertype));
+		requiredLiterals = new String[clauses.size()][];
+		for (int i = 0; i < clauses.size(); i++) requiredLiterals[i] = clauses.get(i).toArray(new String[0]);
+	}
+
+	@Override
+	public boolean checkMatch(String fileContent) {
+		return checkMatch(new FileContent(fileContent, null));
+	}
+
+	@Override
+	public boolean checkMatch(FileContent content) {
+		clauses:
+		for (String[] clause : requiredLiterals) {
+			for (String literal : clause) {
+				if (content.containsKeyword(literal)) continue clauses;
+			}
+			return false;
+		}
+
+		for (TypeDeclaration declaration : content.getDeclarations()) {
+			if (!kinds.contains(declaration.getKind()) || !name.matcher(declaration.getName()).matches()) continue;
+			if (supertype == null) return true;
+			for (String extended : declaration.getSupertypes()) {
+				if (supertype.matcher(extended).matches()) return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void collectKeywords(Collection<String> keywords) {
+		for (String[] clause : requiredLiterals) {
+			for (String literal : clause) keywords.add(literal);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Declaration[" + kinds + " " + name.pattern() + (supertype != null ? " : " + supertype.pattern() : "") + "]";
+	}
+
+}
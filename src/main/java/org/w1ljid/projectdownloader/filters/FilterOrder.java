@@ -0,0 +1,19 @@
+package org.w1ljid.projectdownloader.filters;
+
+/**
+ * The order a composite filter evaluates its inner filters in. The result is the same either way, only the time it takes differs.
+ */
+public enum FilterOrder {
+
+	/**
+	 * The order they were given in.
+	 */
+	DECLARED,
+
+	/**
+	 * Cheapest and most decisive first, as measured on the files seen so far. See {@link AdaptiveOrder}.
+	 * Only for inner filters without side effects (unlike {@link LimitedTotalMatchesFilter}): which of them run changes with the order.
+	 */
+	ADAPTIVE
+
+}
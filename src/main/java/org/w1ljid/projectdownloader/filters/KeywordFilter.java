@@ -1,5 +1,9 @@
 package org.w1ljid.projectdownloader.filters;
 
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.w1ljid.projectdownloader.FileContent;
 import org.w1ljid.projectdownloader.FileFilter;
 
 
@@ -23,4 +27,22 @@ public class KeywordFilter extends FileFilter {
 		return false;
 	}
 
+	@Override
+	public boolean checkMatch(FileContent content) {
+		for (String keyword : keywords) {
+			if (content.containsKeyword(keyword)) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void collectKeywords(Collection<String> keywords) {
+		keywords.addAll(Arrays.asList(this.keywords));
+	}
+
+	@Override
+	public String toString() {
+		return "Keyword" + Arrays.toString(keywords);
+	}
+
 }
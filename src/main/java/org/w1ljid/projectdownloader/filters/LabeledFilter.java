@@ -1,5 +1,8 @@
 package org.w1ljid.projectdownloader.filters;
 
+import java.util.Collection;
+
+import org.w1ljid.projectdownloader.FileContent;
 import org.w1ljid.projectdownloader.FileFilter;
 
 
@@ -28,4 +31,19 @@ public class LabeledFilter extends FileFilter {
 		return innerFilter.checkMatch(fileContent);
 	}
 
+	@Override
+	public boolean checkMatch(FileContent content) {
+		return innerFilter.checkMatch(content);
+	}
+
+	@Override
+	public void collectKeywords(Collection<String> keywords) {
+		innerFilter.collectKeywords(keywords);
+	}
+
+	@Override
+	public String toString() {
+		return label + ": " + innerFilter;
+	}
+
 }
@@ -1,36 +1,64 @@
 package org.w1ljid.projectdownloader.filters;
 
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w1ljid.projectdownloader.FileContent;
 import org.w1ljid.projectdownloader.FileFilter;
 
 
 /**
  * Filter that stops matching after a given number of successful matches over
- * its lifetime.
+ * its lifetime. Safe to use from multiple threads, the limit is never exceeded.
  */
 public class LimitedTotalMatchesFilter extends FileFilter {
 
 	private final FileFilter innerFilter;
-	private int matchesLeft;
+	private final int limit;
+	private final AtomicInteger matchesLeft; // Negative for no limit
 
 
 	public LimitedTotalMatchesFilter(FileFilter innerFilter, int matchesLeft) {
 		this.innerFilter = innerFilter;
-		this.matchesLeft = matchesLeft;
+		this.limit = matchesLeft;
+		this.matchesLeft = new AtomicInteger(matchesLeft);
 	}
 
 
 	@Override
 	public boolean checkMatch(String fileContent) { // TODO Auto-generated method stub
-		if (matchesLeft == 0) {
+		if (matchesLeft.get() == 0) {
 			return false;
 		}
 
-		if (innerFilter.checkMatch(fileContent)) {
-			if(matchesLeft > 0) matchesLeft--;
-			return true;
-		} else {
+		return innerFilter.checkMatch(fileContent) && takeMatch();
+	}
+
+	@Override
+	public boolean checkMatch(FileContent content) {
+		if (matchesLeft.get() == 0) {
 			return false;
 		}
+
+		return innerFilter.checkMatch(content) && takeMatch();
+	}
+
+	/**
+	 * Uses up one of the matches left, unless there is no limit.
+	 * @return Whether there was one left. Another thread may have taken the last one since it was checked.
+	 */
+	private boolean takeMatch() {
+		return matchesLeft.getAndUpdate(left -> left > 0 ? left - 1 : left) != 0;
+	}
+
+	@Override
+	public void collectKeywords(Collection<String> keywords) {
+		innerFilter.collectKeywords(keywords);
+	}
+
+	@Override
+	public String toString() {
+		return "Limited[" + limit + ", " + innerFilter + "]";
 	}
 
 }
@@ -1,18 +1,27 @@
 package org.w1ljid.projectdownloader.filters;
 
+import org.w1ljid.projectdownloader.FileContent;
 import org.w1ljid.projectdownloader.FileFilter;
+import org.w1ljid.projectdownloader.matching.RequiredLiterals;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.regex.*;
 
 
 /**
  * Filter that matches files containing any of the provided regices.
+ * The strings a pattern can't match without (see {@link RequiredLiterals}) are looked for first, so the pattern only runs on files that contain them.
+ * They are reported as keywords, so that they are found in the same pass as every other keyword.
  */
 public class RegexFilter extends FileFilter {
 
 	private final Pattern[] patterns;
+	private final String[][][] requiredLiterals; // [pattern][clause][alternative]
 
 	public RegexFilter(Pattern... patterns) {
 		this.patterns = patterns;
+		this.requiredLiterals = analyze(patterns);
 	}
 
 	public RegexFilter(String... patternStrings) {
@@ -20,6 +29,7 @@ public class RegexFilter extends FileFilter {
 		for (int i = 0; i < patternStrings.length; i++) {
 			patterns[i] = Pattern.compile(patternStrings[i]);
 		}
+		this.requiredLiterals = analyze(patterns);
 	}
 
 	public RegexFilter(int compileFlags, String... patternStrings) {
@@ -27,15 +37,76 @@ public class RegexFilter extends FileFilter {
 		for (int i = 0; i < patternStrings.length; i++) {
 			patterns[i] = Pattern.compile(patternStrings[i], compileFlags);
 		}
+		this.requiredLiterals = analyze(patterns);
+	}
+
+	private static String[][][] analyze(Pattern[] patterns) {
+		String[][][] literals = new String[patterns.length][][];
+		for (int i = 0; i < patterns.length; i++) {
+			List<List<String>> clauses = RequiredLiterals.of(patterns[i]);
+			literals[i] = new String[clauses.size()][];
+			for (int j = 0; j < clauses.size(); j++) {
+				literals[i][j] = clauses.get(j).toArray(new String[0]);
+			}
+		}
+		return literals;
 	}
 
 	@Override
 	public boolean checkMatch(String fileContent) {
-		for (Pattern pattern : patterns) {
-			Matcher matcher = pattern.matcher(fileContent);
+		for (int i = 0; i < patterns.length; i++) {
+			if (!containsRequired(i, fileContent, null)) continue;
+			Matcher matcher = patterns[i].matcher(fileContent);
 			if (matcher.find()) return true;
 		}
 		return false;
 	}
 
+	@Override
+	public boolean checkMatch(FileContent content) {
+		for (int i = 0; i < patterns.length; i++) {
+			if (!containsRequired(i, null, content)) continue;
+			Matcher matcher = patterns[i].matcher(content.getText()); // Only decoded if some pattern got this far
+			if (matcher.find()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Whether the file has every clause of the pattern's required literals. Exactly one of the file's forms is given.
+	 */
+	private boolean containsRequired(int pattern, String text, FileContent content) {
+		for (String[] clause : requiredLiterals[pattern]) {
+			boolean found = false;
+			for (String literal : clause) {
+				if (content != null ? content.containsKeyword(literal) : text.contains(literal)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void collectKeywords(Collection<String> keywords) {
+		for (String[][] clauses : requiredLiterals) {
+			for (String[] clause : clauses) {
+				for (String literal : clause) keywords.add(literal);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Regex[");
+		for (int i = 0; i < patterns.length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(patterns[i].pattern());
+			if (patterns[i].flags() != 0) sb.append(" (flags ").append(patterns[i].flags()).append(')');
+		}
+		return sb.append(']').toString();
+	}
+
 }
@@ -1,5 +1,6 @@
 package org.w1ljid.projectdownloader.filters;
 
+import org.w1ljid.projectdownloader.FileContent;
 import org.w1ljid.projectdownloader.FileFilter;
 
 /**
@@ -32,4 +33,71 @@ public class SketchyCharactersFilter extends FileFilter {
 		return true;
 	}
 
+	/**
+	 * Works on the raw UTF-8 bytes when possible, giving the same result as decoding them first would. Malformed sequences decode to U+FFFD, which is allowed, so they are simply skipped.
+	 */
+	@Override
+	public boolean checkMatch(FileContent content) {
+		if (!content.hasBytes()) return checkMatch(content.getText());
+
+		byte[] bytes = content.getBytes();
+		int i = content.getOffset();
+		int end = i + content.getLength();
+
+		while (i < end) {
+			int b0 = bytes[i] & 0xFF;
+
+			if (b0 < 0x80) { // ASCII
+				if (b0 == ' ' || b0 == '\n' || b0 == '\r' || b0 == '\t') {
+					i++;
+					continue;
+				}
+				if (b0 < 0x20 || b0 == 0x7F) return false; // Control character (ASCII has no other whitespace)
+				i++;
+			} else if (b0 >= 0xC2 && b0 <= 0xDF) { // 2 bytes
+				if (i + 1 >= end || !isContinuation(bytes[i + 1])) {
+					i++;
+					continue;
+				}
+				int codepoint = ((b0 & 0x1F) << 6) | (bytes[i + 1] & 0x3F);
+				if (Character.isISOControl(codepoint)) return false; // Control character
+				if (Character.isWhitespace(codepoint)) return false; // If this were well-meaning whitespace, it would've been in the whitelist earlier.
+				i += 2;
+			} else if (b0 >= 0xE0 && b0 <= 0xEF) { // 3 bytes
+				if (i + 2 >= end || !isContinuation(bytes[i + 1]) || !isContinuation(bytes[i + 2])) {
+					i++;
+					continue;
+				}
+				int codepoint = ((b0 & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F);
+				if (codepoint < 0x800 || Character.isSurrogate((char) codepoint)) { // Overlong or encoded surrogate: malformed
+					i++;
+					continue;
+				}
+				if (Character.isWhitespace(codepoint)) return false; // If this were well-meaning whitespace, it would've been in the whitelist earlier.
+				i += 3;
+			} else if (b0 >= 0xF0 && b0 <= 0xF4) { // 4 bytes
+				if (i + 3 >= end || !isContinuation(bytes[i + 1]) || !isContinuation(bytes[i + 2]) || !isContinuation(bytes[i + 3])) {
+					i++;
+					continue;
+				}
+				int codepoint = ((b0 & 0x07) << 18) | ((bytes[i + 1] & 0x3F) << 12) | ((bytes[i + 2] & 0x3F) << 6) | (bytes[i + 3] & 0x3F);
+				if (codepoint >= 0x10000 && codepoint <= Character.MAX_CODE_POINT) return false; // Not in BMP
+				i++; // Overlong or out of range: malformed
+			} else { // Stray continuation byte or invalid lead byte: malformed
+				i++;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isContinuation(byte b) {
+		return (b & 0xC0) == 0x80;
+	}
+
+	@Override
+	public String toString() {
+		return "SketchyCharacters";
+	}
+
 }
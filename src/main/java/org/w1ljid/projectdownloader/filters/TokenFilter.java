@@ -0,0 +1,64 @@
+package org.w1ljid.projectdownloader.filters;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.w1ljid.projectdownloader.FileContent;
+import org.w1ljid.projectdownloader.FileFilter;
+import org.w1ljid.projectdownloader.matching.JavaTokens;
+
+/**
+ * Filter that matches files using any of the provided words in their code, as whole words: identifiers, keywords and annotation names count,
+ * parts of longer identifiers, comments and string literals don't. "Test" matches @Test, but neither TestUtils nor a comment about tests.
+ * Matching is case-sensitive. Files without any of the words anywhere are ruled out by the shared keyword scan, before they are tokenized.
+ */
+public class TokenFilter extends FileFilter {
+
+	private final String[] words;
+
+	public TokenFilter(String... words) {
+		for (String word : words) {
+			if (word.isEmpty() || !Character.isJavaIdentifierStart(word.charAt(0)) || !word.chars().skip(1).allMatch(Character::isJavaIdentifierPart)) {
+				throw new IllegalArgumentException("Not a word: \"" + word + "\"");
+			}
+		}
+		this.words = words;
+	}
+
+	@Override
+	public boolean checkMatch(String fileContent) {
+		return checkMatch(new FileContent(fileContent, null));
+	}
+
+	@Override
+	public boolean checkMatch(FileContent content) {
+		boolean any = false;
+		for (String word : words) {
+			if (content.containsKeyword(word)) {
+				any = true;
+				break;
+			}
+		}
+		if (!any) return false;
+
+		JavaTokens tokens = content.getTokens();
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.kind(i) != JavaTokens.WORD) continue;
+			for (String word : words) {
+				if (tokens.is(i, word)) return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void collectKeywords(Collection<String> keywords) {
+		keywords.addAll(Arrays.asList(words));
+	}
+
+	@Override
+	public String toString() {
+		return "Token" + Arrays.toString(words);
+	}
+
+}
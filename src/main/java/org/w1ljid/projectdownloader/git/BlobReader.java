@@ -0,0 +1,75 @@
+package org.w1ljid.projectdownloader.git;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Reads blobs into memory with as little allocation as possible. Blobs at least
+ * as large as the repository's stream file threshold are streamed into a buffer
+ * that is reused between calls. JGit inflates smaller ones into a new array of
+ * their own, which is handed out without another copy. Lowering the threshold
+ * (WindowCacheConfig for repositories on the disk, DfsReaderOptions for
+ * in-memory ones) makes the reused buffer the common case. Not thread-safe, each
+ * worker should have its own.
+ */
+public class BlobReader {
+
+	private static final int INITIAL_CAPACITY = 64 * 1024;
+
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+	private byte[] data;
+	private int length;
+
+
+	/**
+	 * Reads a blob, unless it is larger than the given size. The size is checked before anything is inflated.
+	 * @return Whether the blob was read. The data is available from {@link #getData()} until the next call.
+	 */
+	public boolean read(ObjectReader reader, AnyObjectId blobId, long maxSize) throws IOException {
+		data = null;
+		length = 0;
+
+		long size = reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+		if (size > maxSize || size > Integer.MAX_VALUE) return false;
+
+		ObjectLoader loader = reader.open(blobId, Constants.OBJ_BLOB);
+		if (!loader.isLarge()) {
+			data = loader.getCachedBytes(); // Allocated by open(), but not copied again
+			length = data.length;
+			return true;
+		}
+
+		ensureCapacity((int) size);
+		try (ObjectStream in = loader.openStream()) {
+			IO.readFully(in, buffer, 0, (int) size);
+		}
+		data = buffer;
+		length = (int) size;
+		return true;
+	}
+
+	/**
+	 * The blob read last, from index 0 to {@link #getLength()}. Must not be modified, and is overwritten by the next read.
+	 */
+	public byte[] getData() { return data; }
+
+	public int getLength() { return length; }
+
+
+	private void ensureCapacity(int capacity) {
+		if (buffer.length >= capacity) return;
+
+		int newCapacity = buffer.length;
+		while (newCapacity < capacity) {
+			newCapacity = newCapacity > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : newCapacity * 2;
+		}
+		buffer = new byte[newCapacity];
+	}
+
+}
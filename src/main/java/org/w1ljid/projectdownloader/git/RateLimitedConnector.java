@@ -0,0 +1,193 @@
+package org.w1ljid.projectdownloader.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+import org.w1ljid.projectdownloader.util.TaggedLog;
+import org.w1ljid.projectdownloader.util.TokenBucket;
+
+/**
+ * Paces requests to GitHub's API so that rate limits are rarely hit, and waits them out instead of failing when they are.
+ * Search requests and all other ("core") requests are paced separately, as GitHub limits them separately. Each starts at a configured rate,
+ * which is lowered to what the rate limit headers say is sustainable. When GitHub answers 403 or 429 because of a rate limit, the request is
+ * retried once the limit resets or after the time GitHub asks for, and the rate is halved. It then creeps back up while requests succeed.
+ * A secondary limit doesn't always say how long to wait, and then only its message tells it apart from a 403 for missing permissions; those
+ * wait a minute, doubling with every further hit.
+ * Wrap the default connector with this through {@link org.kohsuke.github.GitHubBuilder#withConnector(GitHubConnector)}.
+ */
+public class RateLimitedConnector implements GitHubConnector {
+
+	private static final int MAX_RETRIES = 5;
+	private static final long DEFAULT_BACKOFF_SECONDS = 60; // What GitHub recommends when a secondary limit doesn't say how long to wait.
+	private static final long MAX_BACKOFF_SECONDS = 15 * 60;
+	private static final int SUCCESSES_PER_INCREASE = 10;
+
+	private final GitHubConnector delegate;
+	private final Resource search;
+	private final Resource core;
+	private final TaggedLog log = new TaggedLog("GitHub API");
+
+
+	/**
+	 * Pacing of one kind of request.
+	 */
+	private class Resource {
+		final String name;
+		final long windowSeconds; // Length of the window GitHub counts requests in
+		final TokenBucket bucket;
+		double ceiling; // Highest rate that may be used, lowered by what the headers say
+		int successes;
+		int strikes; // Rate limit hits since the last success
+
+		Resource(String name, double permitsPerSecond, long windowSeconds, TokenBucket.Clock clock) {
+			this.name = name;
+			this.windowSeconds = windowSeconds;
+			this.ceiling = permitsPerSecond;
+			this.bucket = new TokenBucket(permitsPerSecond, Math.max(1, permitsPerSecond * 5), clock);
+		}
+
+		/**
+		 * Learns from a response's headers.
+		 * @param message The body of a 403 response, null for others.
+		 * @return Whether the request was refused because of a rate limit, and should be retried.
+		 */
+		synchronized boolean update(GitHubConnectorResponse response, String message) {
+			long limit = headerLong(response, "X-RateLimit-Limit");
+			long remaining = headerLong(response, "X-RateLimit-Remaining");
+			long reset = headerLong(response, "X-RateLimit-Reset");
+			long retryAfter = headerLong(response, "Retry-After");
+			long secondsToReset = reset >= 0 ? Math.max(1, reset - System.currentTimeMillis() / 1000 + 1) : -1;
+
+			if (limit > 0 && (double) limit / windowSeconds < ceiling) {
+				ceiling = (double) limit / windowSeconds;
+				if (bucket.getRate() > ceiling) bucket.setRate(ceiling);
+			}
+
+			int status = response.statusCode();
+			boolean secondary = status == 403 && (response.header("gh-limited-by") != null || message != null && isSecondaryLimitMessage(message));
+			boolean limited = (status == 403 || status == 429) && (retryAfter >= 0 || remaining == 0 || status == 429 || secondary);
+			if (!limited) {
+				strikes = 0;
+				if (remaining == 0 && secondsToReset > 0) bucket.pause(secondsToReset, TimeUnit.SECONDS); // Used up, the next request would be refused.
+				if (++successes >= SUCCESSES_PER_INCREASE) {
+					successes = 0;
+					bucket.setRate(Math.min(ceiling, bucket.getRate() + ceiling / 50));
+				}
+				return false;
+			}
+
+			long wait;
+			if (retryAfter >= 0) {
+				wait = Math.max(1, retryAfter); // Secondary limit
+			} else if (remaining == 0 && secondsToReset > 0) {
+				wait = secondsToReset; // Primary limit
+			} else {
+				wait = Math.min(MAX_BACKOFF_SECONDS, DEFAULT_BACKOFF_SECONDS << Math.min(strikes, 10));
+			}
+			strikes++;
+			successes = 0;
+			bucket.setRate(Math.max(ceiling / 64, bucket.getRate() / 2));
+			bucket.pause(wait, TimeUnit.SECONDS);
+			log.println("Rate limited (" + name + ", HTTP " + status + "), waiting " + wait + " s and slowing down to " + String.format("%.2f", bucket.getRate() * 60) + " requests per minute");
+			return true;
+		}
+	}
+
+
+	/**
+	 * @param searchPerSecond Rate to pace search requests at, at most. GitHub allows 30 per minute with credentials.
+	 * @param corePerSecond Rate to pace all other requests at, at most. GitHub allows 5000 per hour with credentials.
+	 */
+	public RateLimitedConnector(GitHubConnector delegate, double searchPerSecond, double corePerSecond) {
+		this(delegate, searchPerSecond, corePerSecond, TokenBucket.Clock.SYSTEM);
+	}
+
+	RateLimitedConnector(GitHubConnector delegate, double searchPerSecond, double corePerSecond, TokenBucket.Clock clock) {
+		this.delegate = delegate;
+		this.search = new Resource("search", searchPerSecond, 60, clock);
+		this.core = new Resource("core", corePerSecond, 60 * 60, clock);
+	}
+
+
+	@Override
+	public GitHubConnectorResponse send(GitHubConnectorRequest request) throws IOException {
+		Resource resource = request.url().getPath().contains("/search/") ? search : core;
+
+		for (int attempt = 0; ; attempt++) {
+			try {
+				resource.bucket.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+			}
+
+			GitHubConnectorResponse response = delegate.send(request);
+			String message = null;
+			if (response.statusCode() == 403) {
+				BufferedResponse buffered = new BufferedResponse(response);
+				message = new String(buffered.body, StandardCharsets.UTF_8);
+				response = buffered;
+			}
+			boolean limited = resource.update(response, message);
+			if (!limited || attempt >= MAX_RETRIES || request.hasBody()) return response; // Requests with a body might not be safe to send again; github-api's own handlers get those.
+			response.close();
+		}
+	}
+
+	/**
+	 * Whether a 403's body is GitHub's message for a secondary limit, current ("You have exceeded a secondary rate limit") or older ("abuse detection mechanism").
+	 */
+	private static boolean isSecondaryLimitMessage(String message) {
+		String lower = message.toLowerCase(Locale.ROOT);
+		return lower.contains("secondary rate limit") || lower.contains("abuse detection");
+	}
+
+	/**
+	 * @return The header's value, or -1 if it is missing or not a number.
+	 */
+	private static long headerLong(GitHubConnectorResponse response, String name) {
+		String value = response.header(name);
+		if (value == null) return -1;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+
+	/**
+	 * A response whose body was read into memory, so that it can be looked at here and still be read by github-api. Only for error responses,
+	 * which are small.
+	 */
+	private static class BufferedResponse extends GitHubConnectorResponse {
+		final byte[] body;
+
+		BufferedResponse(GitHubConnectorResponse response) throws IOException {
+			super(response.request(), response.statusCode(), response.allHeaders());
+			try (response) {
+				InputStream in = response.bodyStream();
+				body = in != null ? in.readAllBytes() : new byte[0];
+			}
+		}
+
+		@Override
+		public InputStream bodyStream() {
+			return new ByteArrayInputStream(body);
+		}
+
+		@Override
+		public void close() {
+			// Nothing left open
+		}
+	}
+
+}
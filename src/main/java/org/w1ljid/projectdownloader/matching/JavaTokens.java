@@ -0,0 +1,145 @@
+package org.w1ljid.projectdownloader.matching;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of Java source code, found by a lightweight lexer that only tells apart what filters care about: words (identifiers and keywords),
+ * numbers, string and character literals, and single-character symbols. Comments and whitespace are skipped.
+ * Tokens are kept as ranges of the text, so nothing is copied unless asked for. Broken or non-Java input never fails, it just gives odd tokens.
+ * Meant to be reused: {@link #tokenize(String)} overwrites the previous tokens. Not thread-safe.
+ */
+public final class JavaTokens {
+
+	public static final byte WORD = 0;
+	public static final byte NUMBER = 1;
+	public static final byte LITERAL = 2; // Strings, text blocks and characters, quotes included
+	public static final byte SYMBOL = 3;
+
+	private String text = "";
+	private int[] starts = new int[1024];
+	private int[] ends = new int[1024];
+	private byte[] kinds = new byte[1024];
+	private int size;
+
+
+	/**
+	 * Replaces the tokens with those of the given text.
+	 */
+	public void tokenize(String text) {
+		this.text = text;
+		size = 0;
+
+		int length = text.length();
+		int i = 0;
+		while (i < length) {
+			char ch = text.charAt(i);
+			int start = i;
+
+			if (ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r' || ch == '\f') {
+				i++;
+			} else if (ch == '/' && i + 1 < length && text.charAt(i + 1) == '/') {
+				i = text.indexOf('\n', i + 2);
+				if (i < 0) i = length;
+			} else if (ch == '/' && i + 1 < length && text.charAt(i + 1) == '*') {
+				i = text.indexOf("*/", i + 2);
+				i = i < 0 ? length : i + 2;
+			} else if (ch == '"') {
+				if (text.startsWith("\"\"\"", i)) {
+					i = skipQuoted(text, i + 3, "\"\"\"");
+				} else {
+					i = skipQuoted(text, i + 1, "\"");
+				}
+				add(LITERAL, start, i);
+			} else if (ch == '\'') {
+				i = skipQuoted(text, i + 1, "'");
+				add(LITERAL, start, i);
+			} else if ((ch >= '0' && ch <= '9') || (ch == '.' && i + 1 < length && text.charAt(i + 1) >= '0' && text.charAt(i + 1) <= '9')) {
+				i++;
+				while (i < length) {
+					char c = text.charAt(i);
+					if (Character.isJavaIdentifierPart(c) || c == '.') {
+						i++;
+					} else if ((c == '+' || c == '-') && "eEpP".indexOf(text.charAt(i - 1)) >= 0) { // Exponent
+						i++;
+					} else {
+						break;
+					}
+				}
+				add(NUMBER, start, i);
+			} else if (Character.isJavaIdentifierStart(ch)) {
+				i++;
+				while (i < length && Character.isJavaIdentifierPart(text.charAt(i))) i++;
+				add(WORD, start, i);
+			} else {
+				i++;
+				add(SYMBOL, start, i);
+			}
+		}
+	}
+
+	/**
+	 * @return Where the literal ends, after the closing quote. Backslashes escape the next character.
+	 */
+	private static int skipQuoted(String text, int i, String quote) {
+		int length = text.length();
+		while (i < length) {
+			char c = text.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			} else if (text.startsWith(quote, i)) {
+				return i + quote.length();
+			} else if (c == '\n' && quote.length() == 1) {
+				return i; // Unterminated, don't let it swallow the rest of the file
+			} else {
+				i++;
+			}
+		}
+		return length;
+	}
+
+	private void add(byte kind, int start, int end) {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+			kinds = Arrays.copyOf(kinds, size * 2);
+		}
+		starts[size] = start;
+		ends[size] = end;
+		kinds[size] = kind;
+		size++;
+	}
+
+
+	public int size() { return size; }
+
+	public byte kind(int index) { return kinds[index]; }
+
+	/** Where the token starts in the text. */
+	public int start(int index) { return starts[index]; }
+
+	/** Where the token ends in the text, exclusive. */
+	public int end(int index) { return ends[index]; }
+
+	/** The text the tokens came from. */
+	public String getText() { return text; }
+
+	/**
+	 * Whether the token is exactly the given string, without copying it.
+	 */
+	public boolean is(int index, String token) {
+		int start = starts[index];
+		return ends[index] - start == token.length() && text.startsWith(token, start);
+	}
+
+	/**
+	 * Whether the token is the given symbol.
+	 */
+	public boolean isSymbol(int index, char symbol) {
+		return kinds[index] == SYMBOL && text.charAt(starts[index]) == symbol;
+	}
+
+	public String toString(int index) {
+		return text.substring(starts[index], ends[index]);
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.w1ljid.projectdownloader.matching;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.w1ljid.projectdownloader.FileFilter;
+
+/**
+ * A set of keywords that are searched for together, in a single pass over the
+ * UTF-8 bytes of a file (Aho-Corasick). Immutable once compiled, so one plan
+ * can be shared by every thread.
+ */
+public final class KeywordPlan {
+
+	private final Map<String, Integer> ids;
+	private final int keywordCount;
+	private final BitSet emptyKeywords;
+
+	private final int[] symbols = new int[256]; // Maps a byte to its column in the transition table, 0 for bytes that appear in no keyword.
+	private final int alphabetSize;
+	private final int[] transitions; // [state * alphabetSize + symbol] -> next state
+	private final int[][] outputs; // Keywords that end in a state, null if none.
+
+
+	private KeywordPlan(List<String> keywords) {
+		ids = new HashMap<>();
+		for (String keyword : keywords) ids.put(keyword, ids.size());
+		keywordCount = keywords.size();
+
+		// Keywords are matched as UTF-8, which finds the same occurrences as searching the decoded text would.
+		List<byte[]> encoded = new ArrayList<>();
+		for (String keyword : keywords) encoded.add(keyword.getBytes(StandardCharsets.UTF_8));
+
+		// Only bytes that actually appear in a keyword get their own column.
+		int nextSymbol = 1;
+		for (byte[] keyword : encoded) {
+			for (byte b : keyword) {
+				if (symbols[b & 0xFF] == 0) symbols[b & 0xFF] = nextSymbol++;
+			}
+		}
+		alphabetSize = nextSymbol;
+
+		// Build the trie.
+		List<int[]> trie = new ArrayList<>();
+		List<List<Integer>> ends = new ArrayList<>();
+		trie.add(newRow());
+		ends.add(null);
+		emptyKeywords = new BitSet();
+
+		for (int id = 0; id < encoded.size(); id++) {
+			byte[] keyword = encoded.get(id);
+			if (keyword.length == 0) {
+				emptyKeywords.set(id); // Every text contains the empty string.
+				continue;
+			}
+
+			int state = 0;
+			for (byte b : keyword) {
+				int symbol = symbols[b & 0xFF];
+				int next = trie.get(state)[symbol];
+				if (next < 0) {
+					next = trie.size();
+					trie.add(newRow());
+					ends.add(null);
+					trie.get(state)[symbol] = next;
+				}
+				state = next;
+			}
+			if (ends.get(state) == null) ends.set(state, new ArrayList<>());
+			ends.get(state).add(id);
+		}
+
+		// Turn the trie into a DFA, following failure links breadth-first.
+		int stateCount = trie.size();
+		transitions = new int[stateCount * alphabetSize];
+		outputs = new int[stateCount][];
+		int[] failure = new int[stateCount];
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+		for (int symbol = 0; symbol < alphabetSize; symbol++) {
+			int next = trie.get(0)[symbol];
+			if (next < 0) {
+				transitions[symbol] = 0;
+			} else {
+				transitions[symbol] = next;
+				failure[next] = 0;
+				queue.add(next);
+			}
+		}
+
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			int fail = failure[state];
+
+			List<Integer> own = ends.get(state);
+			int[] inherited = outputs[fail];
+			if (own != null || inherited != null) {
+				int ownCount = own != null ? own.size() : 0;
+				int[] out = new int[ownCount + (inherited != null ? inherited.length : 0)];
+				for (int i = 0; i < ownCount; i++) out[i] = own.get(i);
+				if (inherited != null) System.arraycopy(inherited, 0, out, ownCount, inherited.length);
+				outputs[state] = out;
+			}
+
+			for (int symbol = 0; symbol < alphabetSize; symbol++) {
+				int next = trie.get(state)[symbol];
+				if (next < 0) {
+					transitions[state * alphabetSize + symbol] = transitions[fail * alphabetSize + symbol];
+				} else {
+					transitions[state * alphabetSize + symbol] = next;
+					failure[next] = transitions[fail * alphabetSize + symbol];
+					queue.add(next);
+				}
+			}
+		}
+	}
+
+	private int[] newRow() {
+		int[] row = new int[alphabetSize];
+		Arrays.fill(row, -1);
+		return row;
+	}
+
+
+	/**
+	 * Collects every keyword from the filters and compiles them into a plan.
+	 */
+	public static KeywordPlan compile(FileFilter... filters) {
+		Collection<String> keywords = new LinkedHashSet<>();
+		for (FileFilter filter : filters) {
+			if (filter != null) filter.collectKeywords(keywords);
+		}
+		return new KeywordPlan(new ArrayList<>(keywords));
+	}
+
+
+	public int size() { return keywordCount; }
+
+	/**
+	 * @return The keyword's index in the BitSets returned by {@link #scan(byte[], int, int)}, or -1 if it isn't part of this plan.
+	 */
+	public int idOf(String keyword) {
+		Integer id = ids.get(keyword);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Finds which keywords appear in UTF-8 encoded text, reading it only once.
+	 * @return The ids of every keyword found.
+	 */
+	public BitSet scan(byte[] bytes, int offset, int length) {
+		BitSet found = new BitSet(keywordCount);
+		scan(bytes, offset, length, found);
+		return found;
+	}
+
+	/**
+	 * Same as {@link #scan(byte[], int, int)}, but reuses a BitSet. Its previous contents are cleared.
+	 */
+	public void scan(byte[] bytes, int offset, int length, BitSet found) {
+		found.clear();
+		found.or(emptyKeywords);
+		int missing = keywordCount - found.cardinality();
+
+		int state = 0;
+		int end = offset + length;
+		for (int i = offset; i < end && missing > 0; i++) {
+			state = transitions[state * alphabetSize + symbols[bytes[i] & 0xFF]];
+
+			int[] out = outputs[state];
+			if (out != null) {
+				for (int id : out) {
+					if (!found.get(id)) {
+						found.set(id);
+						missing--;
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,321 @@
+package org.w1ljid.projectdownloader.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Finds strings that a text has to contain for a regex to match anywhere in it, so that the regex only has to run on texts that contain them.
+ * The result is a list of clauses, each a list of alternatives: every clause needs at least one of its alternatives in the text.
+ * For example "class\\s+[A-z]*Builder" needs "class" and "Builder", and "(Foo|Bar)Baz" needs "Baz" and one of "Foo" and "Bar".
+ * Only the common parts of the syntax are understood. Anything else (case-insensitive matching, inline flags, back references, ...) gives an empty
+ * list, meaning nothing is known to be required, which is always correct.
+ */
+public final class RequiredLiterals {
+
+	private final String regex;
+	private int pos;
+
+
+	/**
+	 * Thrown when the regex uses syntax this class doesn't understand.
+	 */
+	private static class Unsupported extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+
+	private RequiredLiterals(String regex) {
+		this.regex = regex;
+	}
+
+
+	/**
+	 * @return The clauses any match of the pattern needs, possibly none. Neither the lists nor their strings are empty.
+	 */
+	public static List<List<String>> of(Pattern pattern) {
+		int flags = pattern.flags();
+		if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) return Collections.emptyList(); // Even a literal pattern can match other text then
+		if ((flags & Pattern.LITERAL) != 0) {
+			return pattern.pattern().isEmpty() ? Collections.emptyList() : List.of(List.of(pattern.pattern()));
+		}
+
+		RequiredLiterals parser = new RequiredLiterals(pattern.pattern());
+		try {
+			List<List<String>> clauses = parser.alternation();
+			if (parser.pos != parser.regex.length()) return Collections.emptyList(); // Unbalanced ')'
+
+			Set<List<String>> distinct = new LinkedHashSet<>(clauses);
+			return Collections.unmodifiableList(new ArrayList<>(distinct));
+		} catch (Unsupported | RuntimeException e) {
+			return Collections.emptyList();
+		}
+	}
+
+
+	/**
+	 * Branches separated by '|', up to a ')' or the end.
+	 */
+	private List<List<String>> alternation() throws Unsupported {
+		List<List<List<String>>> branches = new ArrayList<>();
+		branches.add(sequence());
+		while (pos < regex.length() && regex.charAt(pos) == '|') {
+			pos++;
+			branches.add(sequence());
+		}
+		if (branches.size() == 1) return branches.get(0);
+
+		// Any branch may match, so only "one of the branches' requirements" is known. One clause from each branch is kept, the most selective.
+		List<String> either = new ArrayList<>();
+		for (List<List<String>> branch : branches) {
+			List<String> best = mostSelective(branch);
+			if (best == null) return new ArrayList<>(); // That branch needs nothing
+			for (String literal : best) {
+				if (!either.contains(literal)) either.add(literal);
+			}
+		}
+		List<List<String>> clauses = new ArrayList<>();
+		clauses.add(either);
+		return clauses;
+	}
+
+	/**
+	 * Consecutive atoms, up to a '|', a ')' or the end.
+	 */
+	private List<List<String>> sequence() throws Unsupported {
+		List<List<String>> clauses = new ArrayList<>();
+		StringBuilder run = new StringBuilder(); // Literal characters that have to appear next to each other
+
+		while (pos < regex.length()) {
+			char ch = regex.charAt(pos);
+			if (ch == '|' || ch == ')') break;
+
+			switch (ch) {
+				case '(': {
+					flush(run, clauses);
+					pos++;
+					List<List<String>> group = group();
+					if (minRepetitions() != 0) clauses.addAll(group); // Unless the quantifier makes it optional
+					break;
+				}
+				case '[':
+					flush(run, clauses);
+					skipClass();
+					minRepetitions();
+					break;
+				case '.':
+				case '^':
+				case '$':
+					flush(run, clauses);
+					pos++;
+					minRepetitions();
+					break;
+				case '*':
+				case '+':
+				case '?':
+				case '{':
+					throw new Unsupported(); // Dangling quantifier
+				case '\\':
+					escape(run, clauses);
+					break;
+				default: {
+					int codePoint = regex.codePointAt(pos);
+					pos += Character.charCount(codePoint);
+					literal(codePoint, run, clauses);
+				}
+			}
+		}
+		flush(run, clauses);
+		return clauses;
+	}
+
+	/**
+	 * Adds a character that has to match itself, unless a quantifier makes it optional. A quantifier applies to the whole code point, both halves of a surrogate pair.
+	 */
+	private void literal(int codePoint, StringBuilder run, List<List<String>> clauses) throws Unsupported {
+		int min = minRepetitions();
+		if (min < 0) {
+			run.appendCodePoint(codePoint);
+		} else if (min == 0) {
+			flush(run, clauses);
+		} else {
+			run.appendCodePoint(codePoint); // Required, but more copies of it may follow
+			flush(run, clauses);
+		}
+	}
+
+	/**
+	 * The group after a '(', through its ')'.
+	 * @return What the group needs.
+	 */
+	private List<List<String>> group() throws Unsupported {
+		boolean required = true;
+		if (regex.startsWith("?", pos)) {
+			if (regex.startsWith("?:", pos) || regex.startsWith("?=", pos) || regex.startsWith("?>", pos)) {
+				pos += 2; // Non-capturing, lookahead (what it looks for has to be in the text too) or atomic
+			} else if (regex.startsWith("?<=", pos)) {
+				pos += 3;
+			} else if (regex.startsWith("?!", pos)) {
+				pos += 2;
+				required = false;
+			} else if (regex.startsWith("?<!", pos)) {
+				pos += 3;
+				required = false;
+			} else if (regex.startsWith("?<", pos)) {
+				int end = regex.indexOf('>', pos);
+				if (end < 0) throw new Unsupported();
+				pos = end + 1; // Named group
+			} else {
+				throw new Unsupported(); // Inline flags
+			}
+		}
+
+		List<List<String>> inner = alternation();
+		if (pos >= regex.length() || regex.charAt(pos) != ')') throw new Unsupported();
+		pos++;
+		return required ? inner : new ArrayList<>();
+	}
+
+	/**
+	 * An escape sequence starting at the backslash.
+	 */
+	private void escape(StringBuilder run, List<List<String>> clauses) throws Unsupported {
+		if (pos + 1 >= regex.length()) throw new Unsupported();
+		int next = regex.codePointAt(pos + 1);
+		pos += 1 + Character.charCount(next);
+
+		if (next == 'Q') {
+			int end = regex.indexOf("\\E", pos);
+			String quoted = end >= 0 ? regex.substring(pos, end) : regex.substring(pos);
+			pos = end >= 0 ? end + 2 : regex.length();
+			if (quoted.isEmpty()) return;
+			int last = quoted.offsetByCodePoints(quoted.length(), -1);
+			run.append(quoted, 0, last);
+			literal(quoted.codePointAt(last), run, clauses); // A quantifier after \E applies to the last character
+			return;
+		}
+
+		switch (next) {
+			case 't': literal('\t', run, clauses); return;
+			case 'n': literal('\n', run, clauses); return;
+			case 'r': literal('\r', run, clauses); return;
+			case 'f': literal('\f', run, clauses); return;
+			case 'a': literal('\u0007', run, clauses); return;
+			case 'e': literal('\u001B', run, clauses); return;
+			default:
+		}
+
+		if ("dDsSwWhHvVRXbBGAzZ".indexOf(next) >= 0) { // Character classes and boundaries
+			flush(run, clauses);
+			minRepetitions();
+			return;
+		}
+		if (next == 'p' || next == 'P') { // Unicode classes
+			flush(run, clauses);
+			if (pos < regex.length() && regex.charAt(pos) == '{') {
+				int end = regex.indexOf('}', pos);
+				if (end < 0) throw new Unsupported();
+				pos = end + 1;
+			} else {
+				pos++;
+			}
+			minRepetitions();
+			return;
+		}
+		if (Character.isLetterOrDigit(next)) throw new Unsupported(); // Back references, and hex, unicode, octal, control and named characters
+
+		literal(next, run, clauses); // Escaped punctuation
+	}
+
+	/**
+	 * Skips a character class, including nested ones.
+	 */
+	private void skipClass() throws Unsupported {
+		int depth = 1;
+		pos++; // '['
+		if (pos < regex.length() && regex.charAt(pos) == '^') pos++;
+		if (pos < regex.length() && regex.charAt(pos) == ']') pos++; // A leading ']' is literal
+		while (pos < regex.length()) {
+			char ch = regex.charAt(pos);
+			if (ch == '\\') {
+				pos += 2;
+			} else if (ch == '[') {
+				depth++;
+				pos++;
+			} else if (ch == ']') {
+				pos++;
+				if (--depth == 0) return;
+			} else {
+				pos++;
+			}
+		}
+		throw new Unsupported();
+	}
+
+	/**
+	 * Consumes the quantifier after an atom, if any.
+	 * @return The least number of times the atom has to match, or -1 if there is no quantifier (exactly once).
+	 */
+	private int minRepetitions() throws Unsupported {
+		if (pos >= regex.length()) return -1;
+
+		int min;
+		char ch = regex.charAt(pos);
+		if (ch == '?' || ch == '*') {
+			min = 0;
+			pos++;
+		} else if (ch == '+') {
+			min = 1;
+			pos++;
+		} else if (ch == '{') {
+			int end = regex.indexOf('}', pos);
+			if (end < 0) throw new Unsupported();
+			String bounds = regex.substring(pos + 1, end);
+			int comma = bounds.indexOf(',');
+			try {
+				min = Integer.parseInt((comma >= 0 ? bounds.substring(0, comma) : bounds).trim());
+			} catch (NumberFormatException e) {
+				throw new Unsupported();
+			}
+			pos = end + 1;
+		} else {
+			return -1;
+		}
+
+		if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) pos++; // Lazy or possessive
+		return min;
+	}
+
+	private static void flush(StringBuilder run, List<List<String>> clauses) {
+		if (run.length() == 0) return;
+		List<String> clause = new ArrayList<>();
+		clause.add(run.toString());
+		clauses.add(clause);
+		run.setLength(0);
+	}
+
+	/**
+	 * @return The clause whose shortest alternative is the longest, as a rough guess of which one rules out the most texts. Null if there are none.
+	 */
+	private static List<String> mostSelective(List<List<String>> clauses) {
+		List<String> best = null;
+		int bestLength = -1;
+		for (List<String> clause : clauses) {
+			int shortest = Integer.MAX_VALUE;
+			for (String literal : clause) shortest = Math.min(shortest, literal.length());
+			if (shortest > bestLength) {
+				best = clause;
+				bestLength = shortest;
+			}
+		}
+		return best;
+	}
+
+}
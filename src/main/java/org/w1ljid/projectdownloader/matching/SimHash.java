@@ -0,0 +1,102 @@
+package org.w1ljid.projectdownloader.matching;
+
+/**
+ * Computes 64-bit SimHash fingerprints of source files. Files that differ
+ * only slightly (renamed variables, a few changed lines, different
+ * formatting or comments) get fingerprints that differ in only a few bits.
+ * Features are shingles of three consecutive tokens, read straight from the
+ * UTF-8 bytes. Whitespace and comments are skipped.
+ */
+public final class SimHash {
+
+	private SimHash() {}
+
+
+	/**
+	 * @return The fingerprint of the UTF-8 encoded source code.
+	 */
+	public static long fingerprint(byte[] bytes, int offset, int length) {
+		int[] weights = new int[64];
+		long previous1 = 0;
+		long previous2 = 0;
+		int tokens = 0;
+
+		int end = offset + length;
+		int i = offset;
+		while (i < end) {
+			int b = bytes[i] & 0xFF;
+
+			// Skip whitespace and comments
+			if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f') {
+				i++;
+				continue;
+			}
+			if (b == '/' && i + 1 < end && bytes[i + 1] == '/') {
+				while (i < end && bytes[i] != '\n') i++;
+				continue;
+			}
+			if (b == '/' && i + 1 < end && bytes[i + 1] == '*') {
+				i += 2;
+				while (i < end && !(bytes[i] == '*' && i + 1 < end && bytes[i + 1] == '/')) i++;
+				i += 2;
+				continue;
+			}
+
+			// Words (identifiers, keywords, numbers; non-ASCII counts as part of a word) or single punctuation characters
+			long hash = 0xcbf29ce484222325L; // FNV-1a
+			if (isWordByte(b)) {
+				while (i < end && isWordByte(bytes[i] & 0xFF)) {
+					hash = (hash ^ (bytes[i] & 0xFF)) * 0x100000001b3L;
+					i++;
+				}
+			} else {
+				hash = (hash ^ b) * 0x100000001b3L;
+				i++;
+			}
+
+			tokens++;
+			if (tokens >= 3) addFeature(weights, mix(previous2 * 0x9E3779B97F4A7C15L + previous1 * 0xC2B2AE3D27D4EB4FL + hash));
+			previous2 = previous1;
+			previous1 = hash;
+		}
+
+		if (tokens > 0 && tokens < 3) addFeature(weights, mix(previous2 * 0x9E3779B97F4A7C15L + previous1)); // Tiny files still get a fingerprint
+
+		long fingerprint = 0;
+		for (int bit = 0; bit < 64; bit++) {
+			if (weights[bit] > 0) fingerprint |= 1L << bit;
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Number of bits two fingerprints differ in.
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+
+	private static boolean isWordByte(int b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$' || b >= 0x80;
+	}
+
+	private static void addFeature(int[] weights, long hash) {
+		for (int bit = 0; bit < 64; bit++) {
+			weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Spreads the bits of a hash (MurmurHash3's finalizer).
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
@@ -0,0 +1,105 @@
+package org.w1ljid.projectdownloader.matching;
+
+import java.util.Arrays;
+
+/**
+ * Finds SimHash fingerprints within a given Hamming distance without comparing
+ * against all of them. Fingerprints are split into maxDistance + 1 bands: two
+ * fingerprints that differ in at most maxDistance bits must agree on at least
+ * one whole band, so only fingerprints sharing a band's bucket are compared.
+ * Every bucket stores the fingerprints themselves, so that checking one is a
+ * sequential scan. Uses about 8 * bands bytes per fingerprint. Not thread-safe.
+ */
+public final class SimHashIndex {
+
+	private static final int BUCKET_BITS = 16;
+	private static final int BUCKETS_PER_BAND = 1 << BUCKET_BITS;
+
+	private final int maxDistance;
+	private final int bands;
+	private final int[] bandShifts;
+	private final long[] bandMasks;
+
+	private int size;
+	private final long[][] buckets; // [band * BUCKETS_PER_BAND + bucket] -> fingerprints
+	private final int[] bucketSizes;
+
+
+	/**
+	 * @param maxDistance Fingerprints that differ in at most this many bits count as near-duplicates. Between 0 and 15.
+	 */
+	public SimHashIndex(int maxDistance) {
+		if (maxDistance < 0 || maxDistance > 15) throw new IllegalArgumentException("maxDistance must be between 0 and 15");
+
+		this.maxDistance = maxDistance;
+		this.bands = maxDistance + 1;
+		this.bandShifts = new int[bands];
+		this.bandMasks = new long[bands];
+
+		int shift = 0;
+		for (int band = 0; band < bands; band++) {
+			int width = 64 / bands + (band < 64 % bands ? 1 : 0);
+			bandShifts[band] = shift;
+			bandMasks[band] = width == 64 ? -1L : (1L << width) - 1;
+			shift += width;
+		}
+
+		buckets = new long[bands * BUCKETS_PER_BAND][];
+		bucketSizes = new int[bands * BUCKETS_PER_BAND];
+	}
+
+
+	public int size() { return size; }
+
+	public int getMaxDistance() { return maxDistance; }
+
+	/**
+	 * @return Whether a fingerprint within the maximum distance was added before.
+	 */
+	public boolean containsNear(long fingerprint) {
+		for (int band = 0; band < bands; band++) {
+			int bucket = bucketOf(band, fingerprint);
+			long[] candidates = buckets[bucket];
+			int count = bucketSizes[bucket];
+			for (int i = 0; i < count; i++) {
+				if (SimHash.distance(candidates[i], fingerprint) <= maxDistance) return true;
+			}
+		}
+		return false;
+	}
+
+	public void add(long fingerprint) {
+		size++;
+
+		for (int band = 0; band < bands; band++) {
+			int bucket = bucketOf(band, fingerprint);
+			long[] fingerprints = buckets[bucket];
+			int count = bucketSizes[bucket];
+			if (fingerprints == null) {
+				fingerprints = buckets[bucket] = new long[4];
+			} else if (count == fingerprints.length) {
+				fingerprints = buckets[bucket] = Arrays.copyOf(fingerprints, count + (count >> 1));
+			}
+			fingerprints[count] = fingerprint;
+			bucketSizes[bucket] = count + 1;
+		}
+	}
+
+	/**
+	 * Adds the fingerprint unless a near-duplicate of it is already there.
+	 * @return Whether it was added.
+	 */
+	public boolean addIfNotNear(long fingerprint) {
+		if (containsNear(fingerprint)) return false;
+		add(fingerprint);
+		return true;
+	}
+
+
+	private int bucketOf(int band, long fingerprint) {
+		long value = (fingerprint >>> bandShifts[band]) & bandMasks[band];
+		int bucket = bandMasks[band] < BUCKETS_PER_BAND ? (int) value : (int) (SimHash.mix(value) & (BUCKETS_PER_BAND - 1));
+		return band * BUCKETS_PER_BAND + bucket;
+	}
+
+}
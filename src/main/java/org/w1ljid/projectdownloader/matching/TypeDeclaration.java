@@ -0,0 +1,125 @@
+package org.w1ljid.projectdownloader.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A class, interface, enum, record or annotation type declared in a source file, as far as it can be told from its tokens:
+ * its name, the modifiers written in front of it, and the simple names of the types it extends or implements.
+ */
+public final class TypeDeclaration {
+
+	public enum Kind { CLASS, INTERFACE, ENUM, RECORD, ANNOTATION }
+
+	private static final Set<String> MODIFIERS = Set.of("public", "protected", "private", "abstract", "static", "final", "sealed", "strictfp", "non", "-");
+
+	private final Kind kind;
+	private final String name;
+	private final List<String> modifiers;
+	private final List<String> supertypes;
+
+
+	private TypeDeclaration(Kind kind, String name, List<String> modifiers, List<String> supertypes) {
+		this.kind = kind;
+		this.name = name;
+		this.modifiers = modifiers;
+		this.supertypes = supertypes;
+	}
+
+
+	public Kind getKind() { return kind; }
+
+	/** The simple name, like "PipeAdapter". */
+	public String getName() { return name; }
+
+	/** Like "public" or "abstract", in the order written. */
+	public List<String> getModifiers() { return modifiers; }
+
+	/** Simple names of the extended and implemented types, without type arguments, like "Comparable" for java.lang.Comparable<T>. */
+	public List<String> getSupertypes() { return supertypes; }
+
+	@Override
+	public String toString() {
+		return String.join(" ", modifiers) + (modifiers.isEmpty() ? "" : " ") + kind.name().toLowerCase() + " " + name + (supertypes.isEmpty() ? "" : " : " + String.join(", ", supertypes));
+	}
+
+
+	/**
+	 * Finds every type declared in the tokens, nested ones included, in the order they appear.
+	 */
+	public static List<TypeDeclaration> find(JavaTokens tokens) {
+		List<TypeDeclaration> declarations = new ArrayList<>();
+		int size = tokens.size();
+		for (int i = 0; i + 1 < size; i++) {
+			if (tokens.kind(i) != JavaTokens.WORD || tokens.kind(i + 1) != JavaTokens.WORD) continue;
+
+			Kind kind;
+			if (tokens.is(i, "class")) kind = Kind.CLASS;
+			else if (tokens.is(i, "interface")) kind = i > 0 && tokens.isSymbol(i - 1, '@') ? Kind.ANNOTATION : Kind.INTERFACE;
+			else if (tokens.is(i, "enum")) kind = Kind.ENUM;
+			else if (tokens.is(i, "record") && i + 2 < size && (tokens.isSymbol(i + 2, '(') || tokens.isSymbol(i + 2, '<'))) kind = Kind.RECORD; // Only a keyword there
+			else continue;
+			if (i > 0 && tokens.isSymbol(i - 1, '.')) continue; // Like Foo.class
+
+			String name = tokens.toString(i + 1);
+			declarations.add(new TypeDeclaration(kind, name, modifiersBefore(tokens, kind == Kind.ANNOTATION ? i - 1 : i), supertypesAfter(tokens, i + 2)));
+		}
+		return declarations;
+	}
+
+	private static List<String> modifiersBefore(JavaTokens tokens, int keyword) {
+		int first = keyword;
+		while (first > 0 && (tokens.kind(first - 1) == JavaTokens.WORD || tokens.isSymbol(first - 1, '-')) && MODIFIERS.contains(tokens.toString(first - 1))) first--;
+		if (first == keyword) return Collections.emptyList();
+
+		List<String> modifiers = new ArrayList<>(keyword - first);
+		for (int i = first; i < keyword; i++) {
+			if (tokens.is(i, "non") && i + 2 < keyword && tokens.isSymbol(i + 1, '-') && tokens.is(i + 2, "sealed")) {
+				modifiers.add("non-sealed");
+				i += 2;
+			} else if (tokens.kind(i) == JavaTokens.WORD && !tokens.is(i, "non")) {
+				modifiers.add(tokens.toString(i));
+			}
+		}
+		return modifiers;
+	}
+
+	/**
+	 * Reads the extends and implements clauses, up to the body.
+	 * @param i The token after the name.
+	 */
+	private static List<String> supertypesAfter(JavaTokens tokens, int i) {
+		List<String> supertypes = new ArrayList<>(2);
+		int size = tokens.size();
+		int depth = 0; // Of type parameters and arguments, and of a record's components
+		boolean listing = false; // Inside extends or implements, not permits
+		String last = null; // Last word of the type being read, which is its simple name
+		for (; i < size; i++) {
+			if (tokens.kind(i) == JavaTokens.SYMBOL) {
+				char symbol = tokens.getText().charAt(tokens.start(i));
+				if (symbol == '<' || symbol == '(') depth++;
+				else if (symbol == '>' || symbol == ')') depth--;
+				else if (symbol == '{' || symbol == ';') break; // The body, or something that isn't a declaration after all
+				else if (depth == 0 && symbol == ',' && listing && last != null) {
+					supertypes.add(last);
+					last = null;
+				}
+				continue;
+			}
+			if (depth != 0 || tokens.kind(i) != JavaTokens.WORD) continue;
+
+			if (tokens.is(i, "extends") || tokens.is(i, "implements") || tokens.is(i, "permits")) {
+				if (listing && last != null) supertypes.add(last);
+				listing = !tokens.is(i, "permits");
+				last = null;
+			} else if (listing) {
+				last = tokens.toString(i);
+			}
+		}
+		if (listing && last != null) supertypes.add(last);
+		return supertypes;
+	}
+
+}
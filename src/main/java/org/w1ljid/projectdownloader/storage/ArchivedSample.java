@@ -0,0 +1,45 @@
+package org.w1ljid.projectdownloader.storage;
+
+/**
+ * A sample read back from a {@link PackArchive}. Readers reuse instances, so don't hold on to one after it was visited.
+ */
+public class ArchivedSample {
+
+	String category;
+	int segment;
+	long offset;
+	int length;
+	int checksum;
+	String contentId;
+	String repository;
+	String path;
+	byte[] data = new byte[0];
+
+
+	ArchivedSample() {
+	}
+
+
+	public String getCategory() { return category; }
+
+	/** Number of the segment the sample is in. */
+	public int getSegment() { return segment; }
+
+	/** Position of the sample in its segment's pack file. */
+	public long getOffset() { return offset; }
+
+	public String getContentId() { return contentId; }
+
+	public String getRepository() { return repository; }
+
+	/** Path of the file inside its repository. */
+	public String getPath() { return path; }
+
+	/**
+	 * The sample's bytes are the first {@link #getLength()} bytes of this array. The array is overwritten by the next sample.
+	 */
+	public byte[] getData() { return data; }
+
+	public int getLength() { return length; }
+
+}
@@ -0,0 +1,49 @@
+package org.w1ljid.projectdownloader.storage;
+
+import java.io.IOException;
+
+import org.w1ljid.projectdownloader.FileLibrary;
+
+/**
+ * Stores every sample as its own file in a {@link FileLibrary}, named after the repository and the file.
+ */
+public class LooseFileStore implements SampleStore {
+
+	private final FileLibrary fileLibrary;
+	private final String fileExtension;
+	private final boolean sync;
+
+
+	/**
+	 * @param fileExtension Appended to file names, may be null.
+	 */
+	public LooseFileStore(FileLibrary fileLibrary, String fileExtension) {
+		this(fileLibrary, fileExtension, false);
+	}
+
+	/**
+	 * @param sync Whether every file is synced to the disk before it gets its name. Slower, but a system crash can't leave empty files behind.
+	 */
+	public LooseFileStore(FileLibrary fileLibrary, String fileExtension, boolean sync) {
+		this.fileLibrary = fileLibrary;
+		this.fileExtension = fileExtension;
+		this.sync = sync;
+	}
+
+
+	@Override
+	public String store(String category, String repository, String path, String contentId, byte[] bytes, int offset, int length) throws IOException {
+		String label = repository + " " + fileLibrary.suggestLabel(path);
+		return fileLibrary.store(category, label, bytes, offset, length, fileExtension, contentId, sync);
+	}
+
+	@Override
+	public void flush() {
+		// Every file is complete once stored.
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,299 @@
+package org.w1ljid.projectdownloader.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Stores samples by appending them to a few large files instead of creating one file per sample.
+ * Every category gets its own subdirectory of numbered segments. A segment is a pair of files: the ".pack" file holds the samples' bytes back to back,
+ * and the ".idx" file holds one small entry per sample (offset, length, checksum, content id, repository and path).
+ * Once a pack file grows past the segment limit, a new segment is started.
+ * Entries are only written after their bytes, and entries pointing past the end of their pack file are ignored, so a crash loses at most the samples stored since the last {@link #flush()}.
+ * Storing a sample that the current segment already holds (same content id, repository and path) returns the existing location, so that work redone after a resume doesn't duplicate samples.
+ * Read archives with a {@link PackArchiveReader}, and turn them back into loose files with {@link PackArchiveExporter}.
+ * Safe to use from multiple threads once initialized.
+ */
+public class PackArchive implements SampleStore {
+
+	static final String PACK_SUFFIX = ".pack";
+	static final String INDEX_SUFFIX = ".idx";
+	static final String SEGMENT_PREFIX = "segment-";
+	static final int INDEX_MAGIC = 0x504B4931; // "PKI1"
+
+	private final File directory;
+	private final long segmentLimit;
+	private final Map<String, Segment> segments = new HashMap<>(); // Current segment of every category written to
+
+
+	/**
+	 * @param directory Where the archive is stored. Created if missing. Stores append to an existing archive.
+	 * @param segmentLimit Roughly how many bytes a pack file may hold before a new segment is started. Samples larger than this get a segment of their own.
+	 */
+	public PackArchive(File directory, long segmentLimit) {
+		this.directory = directory;
+		this.segmentLimit = segmentLimit;
+	}
+
+
+	public synchronized void initialize() throws IOException {
+		Files.createDirectories(directory.toPath());
+	}
+
+	public File getDirectory() { return directory; }
+
+
+	@Override
+	public String store(String category, String repository, String path, String contentId, byte[] bytes, int offset, int length) throws IOException {
+		Segment segment;
+		synchronized (this) {
+			segment = segments.get(category);
+			if (segment == null) {
+				segment = Segment.openLatest(new File(directory, category));
+				segments.put(category, segment);
+			}
+		}
+
+		synchronized (segment) {
+			Long existing = segment.positions.get(sampleKey(contentId, repository, path));
+			if (existing != null) return segment.packFile.getPath() + "@" + existing;
+
+			if (segment.packLength > 0 && segment.packLength + length > segmentLimit) {
+				segment.roll();
+			}
+			long position = segment.append(repository, path, contentId, bytes, offset, length);
+			return segment.packFile.getPath() + "@" + position;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		Segment[] open;
+		synchronized (this) {
+			open = segments.values().toArray(new Segment[0]);
+		}
+		for (Segment segment : open) {
+			synchronized (segment) {
+				segment.flush();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		synchronized (this) {
+			for (Segment segment : segments.values()) {
+				synchronized (segment) {
+					segment.close();
+				}
+			}
+			segments.clear();
+		}
+	}
+
+
+	static File packFile(File categoryDir, int number) {
+		return new File(categoryDir, SEGMENT_PREFIX + number + PACK_SUFFIX);
+	}
+
+	static File indexFile(File categoryDir, int number) {
+		return new File(categoryDir, SEGMENT_PREFIX + number + INDEX_SUFFIX);
+	}
+
+	/**
+	 * @return The numbers of the category's segments, in ascending order.
+	 */
+	static int[] segmentNumbers(File categoryDir) {
+		String[] names = categoryDir.list((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(INDEX_SUFFIX));
+		if (names == null) return new int[0];
+
+		int[] numbers = new int[names.length];
+		int count = 0;
+		for (String name : names) {
+			try {
+				numbers[count] = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - INDEX_SUFFIX.length()));
+				count++;
+			} catch (NumberFormatException _e) {
+				// Not ours
+			}
+		}
+		int[] result = Arrays.copyOf(numbers, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > 1 << 24) throw new IOException("Corrupt index entry");
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the index entry at the stream's position into the sample.
+	 * @return Whether a complete entry was read. False at the end of the index, or at a torn last entry.
+	 */
+	static boolean readEntry(DataInputStream in, ArchivedSample into) throws IOException {
+		try {
+			into.offset = in.readLong();
+			into.length = in.readInt();
+			into.checksum = in.readInt();
+			into.contentId = readString(in);
+			into.repository = readString(in);
+			into.path = readString(in);
+			return true;
+		} catch (EOFException _e) {
+			return false;
+		}
+	}
+
+	private static String sampleKey(String contentId, String repository, String path) {
+		return contentId + "\n" + repository + "\n" + path;
+	}
+
+	static long entryLength(ArchivedSample entry) {
+		return Long.BYTES + Integer.BYTES * 5
+			+ entry.contentId.getBytes(StandardCharsets.UTF_8).length
+			+ entry.repository.getBytes(StandardCharsets.UTF_8).length
+			+ entry.path.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+
+	/**
+	 * Appends to the newest segment of a category.
+	 */
+	private static class Segment {
+		final File categoryDir;
+		final CRC32 crc = new CRC32();
+		final Map<String, Long> positions = new HashMap<>(); // Samples in this segment, by sampleKey
+		int number;
+		File packFile;
+		FileOutputStream packFileStream;
+		FileOutputStream indexFileStream;
+		DataOutputStream pack;
+		DataOutputStream index;
+		long packLength;
+
+		private Segment(File categoryDir) {
+			this.categoryDir = categoryDir;
+		}
+
+		/**
+		 * Opens the newest segment of the category for appending, after cutting off anything a crash left half-written.
+		 */
+		static Segment openLatest(File categoryDir) throws IOException {
+			Files.createDirectories(categoryDir.toPath());
+			Segment segment = new Segment(categoryDir);
+			int[] numbers = segmentNumbers(categoryDir);
+			if (numbers.length == 0) {
+				segment.open(0, 0);
+				return segment;
+			}
+
+			int number = numbers[numbers.length - 1];
+			File packFile = packFile(categoryDir, number);
+			File indexFile = indexFile(categoryDir, number);
+			long packLength = packFile.length();
+
+			long validIndexLength = 0;
+			long validPackLength = 0;
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+				if (indexFile.length() >= Integer.BYTES) {
+					if (in.readInt() != INDEX_MAGIC) throw new IOException("\"" + indexFile + "\" is not an archive index");
+					validIndexLength = Integer.BYTES;
+					ArchivedSample entry = new ArchivedSample();
+					while (readEntry(in, entry) && entry.offset == validPackLength && entry.offset + entry.length <= packLength) {
+						segment.positions.put(sampleKey(entry.contentId, entry.repository, entry.path), entry.offset);
+						validIndexLength += entryLength(entry);
+						validPackLength += entry.length;
+					}
+				}
+			}
+
+			try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+				raf.setLength(validIndexLength);
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw")) {
+				raf.setLength(validPackLength);
+			}
+			segment.open(number, validPackLength);
+			return segment;
+		}
+
+		private void open(int number, long packLength) throws IOException {
+			File indexFile = indexFile(categoryDir, number);
+			boolean newIndex = indexFile.length() == 0;
+
+			this.number = number;
+			this.packFile = packFile(categoryDir, number);
+			this.packLength = packLength;
+			packFileStream = new FileOutputStream(packFile, true);
+			indexFileStream = new FileOutputStream(indexFile, true);
+			pack = new DataOutputStream(new BufferedOutputStream(packFileStream, 1 << 16));
+			index = new DataOutputStream(new BufferedOutputStream(indexFileStream, 1 << 16));
+			if (newIndex) index.writeInt(INDEX_MAGIC);
+		}
+
+		long append(String repository, String path, String contentId, byte[] bytes, int offset, int length) throws IOException {
+			crc.reset();
+			crc.update(bytes, offset, length);
+
+			long position = packLength;
+			pack.write(bytes, offset, length);
+			packLength += length;
+
+			index.writeLong(position);
+			index.writeInt(length);
+			index.writeInt((int) crc.getValue());
+			writeString(index, contentId);
+			writeString(index, repository);
+			writeString(index, path);
+			positions.put(sampleKey(contentId, repository, path), position);
+			return position;
+		}
+
+		/**
+		 * Finishes this segment and continues in a new one.
+		 */
+		void roll() throws IOException {
+			flush();
+			close();
+			positions.clear();
+			open(number + 1, 0);
+		}
+
+		void flush() throws IOException {
+			pack.flush(); // Bytes first, so that entries never point at data that isn't on the disk.
+			packFileStream.getFD().sync();
+			index.flush();
+			indexFileStream.getFD().sync();
+		}
+
+		void close() throws IOException {
+			pack.close();
+			index.close();
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.w1ljid.projectdownloader.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.w1ljid.projectdownloader.FileLibrary;
+
+/**
+ * Copies every sample in a {@link PackArchive} into another store, usually a {@link LooseFileStore} to get one file per sample.
+ * Loose files are named after their content id, so exporting into the same directory again only adds what is new.
+ */
+public class PackArchiveExporter {
+
+	private PackArchiveExporter() {}
+
+
+	/**
+	 * @return The number of samples exported.
+	 */
+	public static long export(PackArchiveReader reader, SampleStore target) throws IOException {
+		long count = reader.readAll(sample -> target.store(sample.getCategory(), sample.getRepository(), sample.getPath(), sample.getContentId(), sample.getData(), 0, sample.getLength()));
+		target.flush();
+		return count;
+	}
+
+	/**
+	 * Usage: PackArchiveExporter &lt;archive directory&gt; &lt;output directory&gt; [file extension]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: PackArchiveExporter <archive directory> <output directory> [file extension, default .java]");
+			System.exit(1);
+			return;
+		}
+
+		FileLibrary fileLib = new FileLibrary(args[1]);
+		try (LooseFileStore target = new LooseFileStore(fileLib, args.length > 2 ? args[2] : ".java")) {
+			long count = export(new PackArchiveReader(new File(args[0])), target);
+			System.out.println("Exported " + count + " sample" + (count == 1 ? "" : "s") + " to \"" + fileLib.getCanonicalRoot() + "\"");
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package org.w1ljid.projectdownloader.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the samples of a {@link PackArchive} back, in the order they were stored. Every segment is read front to back, so reading is sequential I/O.
+ * Only sees samples whose index entries were complete when their segment was opened, so an archive can be read while it is written to.
+ */
+public class PackArchiveReader {
+
+	private final File directory;
+
+
+	/**
+	 * Receives samples as they are read.
+	 */
+	public interface Visitor {
+		void visit(ArchivedSample sample) throws IOException;
+	}
+
+
+	public PackArchiveReader(File directory) {
+		this.directory = directory;
+	}
+
+
+	/**
+	 * @return The categories that have samples in the archive, sorted by name.
+	 */
+	public List<String> getCategories() {
+		List<String> categories = new ArrayList<>();
+		File[] dirs = directory.listFiles(File::isDirectory);
+		if (dirs == null) return categories;
+
+		for (File dir : dirs) {
+			if (PackArchive.segmentNumbers(dir).length > 0) categories.add(dir.getName());
+		}
+		Collections.sort(categories);
+		return categories;
+	}
+
+	/**
+	 * Reads every sample in every category.
+	 * @return The number of samples read.
+	 */
+	public long readAll(Visitor visitor) throws IOException {
+		long count = 0;
+		for (String category : getCategories()) count += read(category, visitor);
+		return count;
+	}
+
+	/**
+	 * Reads every sample in the category.
+	 * @return The number of samples read.
+	 * @throws IOException Also if a sample's checksum doesn't match, which means the pack file was damaged.
+	 */
+	public long read(String category, Visitor visitor) throws IOException {
+		File categoryDir = new File(directory, category);
+		ArchivedSample sample = new ArchivedSample();
+		sample.category = category;
+		CRC32 crc = new CRC32();
+		long count = 0;
+
+		for (int number : PackArchive.segmentNumbers(categoryDir)) {
+			File packFile = PackArchive.packFile(categoryDir, number);
+			File indexFile = PackArchive.indexFile(categoryDir, number);
+			long packLength = packFile.length();
+			sample.segment = number;
+
+			try (
+				DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+				InputStream pack = new BufferedInputStream(new FileInputStream(packFile), 1 << 16)
+			) {
+				if (indexFile.length() < Integer.BYTES) continue;
+				if (index.readInt() != PackArchive.INDEX_MAGIC) throw new IOException("\"" + indexFile + "\" is not an archive index");
+
+				long position = 0;
+				while (PackArchive.readEntry(index, sample) && sample.offset == position && sample.offset + sample.length <= packLength) {
+					if (sample.data.length < sample.length) sample.data = new byte[Math.max(sample.length, sample.data.length * 2)];
+					readFully(pack, sample.data, sample.length);
+					position += sample.length;
+
+					crc.reset();
+					crc.update(sample.data, 0, sample.length);
+					if ((int) crc.getValue() != sample.checksum) {
+						throw new IOException("Checksum mismatch for \"" + sample.path + "\" at " + sample.offset + " in \"" + packFile + "\"");
+					}
+
+					visitor.visit(sample);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+
+	private static void readFully(InputStream in, byte[] into, int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int n = in.read(into, read, length - read);
+			if (n < 0) throw new IOException("Pack file ended early");
+			read += n;
+		}
+	}
+
+}
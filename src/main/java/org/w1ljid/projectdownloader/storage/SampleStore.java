@@ -0,0 +1,38 @@
+package org.w1ljid.projectdownloader.storage;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Somewhere to put source files that matched a category. Implementations must be safe to use from multiple threads.
+ */
+public interface SampleStore extends AutoCloseable, Flushable {
+
+	/**
+	 * Stores a sample.
+	 * @param category Category the file matched.
+	 * @param repository Name of the repository the file came from.
+	 * @param path Path of the file inside the repository.
+	 * @param contentId Hex id of the file's content, like its blob id.
+	 * @return Human-readable description of where the sample went.
+	 */
+	String store(String category, String repository, String path, String contentId, byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * Makes sure everything stored so far survives the program exiting.
+	 */
+	@Override
+	void flush() throws IOException;
+
+	/**
+	 * Makes sure every sample stored so far from the repository survives the program exiting.
+	 * @throws IOException Also if any of them couldn't be stored after all, for stores that write in the background.
+	 */
+	default void flush(String repository) throws IOException {
+		flush();
+	}
+
+	@Override
+	void close() throws IOException;
+
+}
@@ -0,0 +1,252 @@
+package org.w1ljid.projectdownloader.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores samples into another store from background threads, so that the threads finding samples don't wait for the disk.
+ * A stored sample is copied into a queue and written later, a batch at a time: a writer stores everything it took from the queue, then flushes
+ * the other store once for all of it, so a store that syncs on flush syncs once per batch rather than once per sample. Under load the batches
+ * fill up; when the disk keeps up they stay small. The queue holds a limited number of bytes; once it is full, storing waits for room, so a disk
+ * that can't keep up slows the search down instead of filling the memory.
+ * {@link #flush()} waits for everything stored before it to be written, then flushes the other store.
+ * A sample that fails to be written is reported by its repository's next {@link #store} or {@link #flush(String)}, so that the repository fails
+ * instead of counting as processed. Safe to use from multiple threads once initialized.
+ */
+public class WriteBehindStore implements SampleStore {
+
+	private static final int BATCH_SIZE = 64; // Samples a writer takes from the queue at once
+
+	private final SampleStore target;
+	private final Listener listener;
+	private final Thread[] writers;
+	private final long capacity;
+
+	// Guarded by this
+	private final ArrayDeque<Sample> queue = new ArrayDeque<>();
+	private long queuedBytes; // Of samples queued or being written
+	private long nextSequence;
+	private final long[] writing; // Lowest sequence number of the batch every writer is writing, Long.MAX_VALUE while it isn't
+	private final Map<String, IOException> failures = new HashMap<>(); // First failure of every repository, until reported
+	private boolean closed;
+
+
+	/**
+	 * Told about every sample once it is written and its batch flushed, from the writer thread that wrote it.
+	 */
+	public interface Listener {
+		/**
+		 * @param location Where the other store put the sample, as its {@link SampleStore#store} described it.
+		 * @throws IOException Fails the sample's repository, like a failed write does.
+		 */
+		void written(String repository, String path, String contentId, String location, int length) throws IOException;
+	}
+
+	private static class Sample {
+		final long sequence;
+		final String category;
+		final String repository;
+		final String path;
+		final String contentId;
+		final byte[] bytes;
+		String location; // Once stored
+		boolean stored;
+
+		Sample(long sequence, String category, String repository, String path, String contentId, byte[] bytes) {
+			this.sequence = sequence;
+			this.category = category;
+			this.repository = repository;
+			this.path = path;
+			this.contentId = contentId;
+			this.bytes = bytes;
+		}
+	}
+
+
+	/**
+	 * @param target Where the samples are written. Closed along with this store.
+	 * @param writerThreads How many threads write samples. At least 1.
+	 * @param capacity How many bytes of samples may wait to be written. A larger sample is still queued when the queue is empty.
+	 * @param listener May be null.
+	 */
+	public WriteBehindStore(SampleStore target, int writerThreads, long capacity, Listener listener) {
+		if (writerThreads < 1) throw new IllegalArgumentException("At least one writer thread is needed");
+
+		this.target = target;
+		this.listener = listener;
+		this.capacity = capacity;
+		writing = new long[writerThreads];
+		Arrays.fill(writing, Long.MAX_VALUE);
+		writers = new Thread[writerThreads];
+		for (int i = 0; i < writerThreads; i++) {
+			int writer = i;
+			writers[i] = new Thread(() -> write(writer), "Sample writer " + (i + 1));
+			writers[i].setDaemon(true);
+		}
+	}
+
+
+	public void initialize() {
+		for (Thread writer : writers) writer.start();
+	}
+
+	/**
+	 * Queues the sample, and returns right away unless the queue is full. The bytes are copied, the caller may reuse its buffer.
+	 * @return Only says that the sample was queued, where it ends up isn't known yet. The listener is told.
+	 * @throws IOException If writing an earlier sample of the same repository failed.
+	 */
+	@Override
+	public String store(String category, String repository, String path, String contentId, byte[] bytes, int offset, int length) throws IOException {
+		byte[] copy = Arrays.copyOfRange(bytes, offset, offset + length);
+		synchronized (this) {
+			throwFailure(repository);
+			try {
+				while (queuedBytes > 0 && queuedBytes + length > capacity && !closed) wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for room in the write queue");
+			}
+			if (closed) throw new IOException("The store is closed");
+
+			queue.add(new Sample(nextSequence++, category, repository, path, contentId, copy));
+			queuedBytes += length;
+			notifyAll();
+		}
+		return "write queue";
+	}
+
+	/**
+	 * Waits for every sample stored so far to be written, then flushes the other store.
+	 * Failed samples aren't reported here, but by {@link #flush(String)} of their repository.
+	 */
+	@Override
+	public void flush() throws IOException {
+		awaitWritten();
+		target.flush();
+	}
+
+	/**
+	 * Like {@link #flush()}, and then reports if any of the repository's samples failed to be written.
+	 */
+	@Override
+	public void flush(String repository) throws IOException {
+		flush();
+		synchronized (this) {
+			throwFailure(repository);
+		}
+	}
+
+	/**
+	 * Writes everything still queued, then closes the other store.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+
+		boolean interrupted = false;
+		for (Thread writer : writers) {
+			while (writer.isAlive()) {
+				try {
+					writer.join();
+				} catch (InterruptedException _e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		synchronized (this) {
+			if (!failures.isEmpty()) System.err.println("Failed to write samples of " + failures.size() + " repositor" + (failures.size() == 1 ? "y" : "ies") + " " + failures.keySet());
+		}
+		target.close();
+	}
+
+
+	private void write(int writer) {
+		List<Sample> batch = new ArrayList<>(BATCH_SIZE);
+		while (true) {
+			synchronized (this) {
+				while (queue.isEmpty() && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException _e) {
+						// Only close() stops the writers, so that nothing queued is lost
+					}
+				}
+				if (queue.isEmpty()) return; // Closed, and everything is written
+
+				while (batch.size() < BATCH_SIZE && !queue.isEmpty()) batch.add(queue.poll());
+				writing[writer] = batch.get(0).sequence;
+			}
+
+			long bytes = 0;
+			for (Sample sample : batch) {
+				try {
+					sample.location = target.store(sample.category, sample.repository, sample.path, sample.contentId, sample.bytes, 0, sample.bytes.length);
+					sample.stored = true;
+				} catch (IOException | RuntimeException e) {
+					fail(sample, e);
+				}
+				bytes += sample.bytes.length;
+			}
+			try {
+				target.flush(); // Once for the whole batch
+				for (Sample sample : batch) {
+					if (!sample.stored) continue; // Already failed
+					try {
+						if (listener != null) listener.written(sample.repository, sample.path, sample.contentId, sample.location, sample.bytes.length);
+					} catch (IOException | RuntimeException e) {
+						fail(sample, e);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				for (Sample sample : batch) fail(sample, e);
+			}
+
+			synchronized (this) {
+				writing[writer] = Long.MAX_VALUE;
+				queuedBytes -= bytes;
+				notifyAll();
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Waits until every sample queued before the call is written, but not for the ones queued while waiting.
+	 */
+	private synchronized void awaitWritten() throws IOException {
+		long sequence = nextSequence;
+		try {
+			while (oldestUnwritten() < sequence) wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for samples to be written");
+		}
+	}
+
+	private long oldestUnwritten() {
+		long oldest = queue.isEmpty() ? Long.MAX_VALUE : queue.peek().sequence;
+		for (long batch : writing) oldest = Math.min(oldest, batch);
+		return oldest;
+	}
+
+	private synchronized void fail(Sample sample, Exception e) {
+		failures.putIfAbsent(sample.repository, e instanceof IOException ? (IOException) e : new IOException(e));
+	}
+
+	private void throwFailure(String repository) throws IOException {
+		IOException failure = failures.remove(repository);
+		if (failure != null) throw new IOException("Failed to write a sample of \"" + repository + "\"", failure);
+	}
+
+}
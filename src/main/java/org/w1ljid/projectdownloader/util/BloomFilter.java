@@ -0,0 +1,98 @@
+package org.w1ljid.projectdownloader.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Bloom filter stored in a memory-mapped file, so it takes no heap and
+ * survives restarts. Entries are given as two 64-bit hashes, which should
+ * already be well mixed (for example the bytes of a SHA-1). Adding is
+ * synchronized, checking isn't: a concurrent check may miss an entry that is
+ * being added, which callers have to be fine with.
+ */
+public final class BloomFilter {
+
+	private static final int MAGIC = 0x424C4D31; // "BLM1"
+	private static final int HEADER_LENGTH = 16;
+	private static final int HASH_COUNT = 7; // Optimal for about 10 bits per entry, ~1% false positives.
+	private static final long MAX_BITS = 8L * (Integer.MAX_VALUE - HEADER_LENGTH);
+
+	private final MappedByteBuffer bits;
+	private final long bitMask;
+	private final boolean fresh;
+
+
+	private BloomFilter(MappedByteBuffer bits, long bitCount, boolean fresh) {
+		this.bits = bits;
+		this.bitMask = bitCount - 1;
+		this.fresh = fresh;
+	}
+
+
+	/**
+	 * Opens the filter in the file, or creates a new empty one sized for the expected number of entries. An existing file with a different size is replaced by an empty one.
+	 * @see #isFresh()
+	 */
+	public static BloomFilter open(Path path, long expectedEntries) throws IOException {
+		long bitCount = Long.highestOneBit(Math.max(64, expectedEntries * 10 - 1)) << 1; // Power of two, so that bits can be picked with a mask.
+		if (bitCount > MAX_BITS) bitCount = Long.highestOneBit(MAX_BITS);
+		long length = HEADER_LENGTH + bitCount / 8;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			boolean fresh = true;
+			if (channel.size() == length) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				channel.read(header, 0);
+				header.flip();
+				fresh = header.getInt() != MAGIC || header.getInt() != 0 || header.getLong() != bitCount;
+			}
+
+			if (fresh) {
+				channel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				header.putInt(MAGIC).putInt(0).putLong(bitCount).flip();
+				channel.write(header, 0);
+				channel.write(ByteBuffer.allocate(1), length - 1); // Extends the (sparse) file to its full size.
+			}
+
+			MappedByteBuffer bits = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_LENGTH, bitCount / 8);
+			return new BloomFilter(bits, bitCount, fresh);
+		}
+	}
+
+
+	/**
+	 * Whether the filter was just created (or recreated) empty, and so has to be refilled from wherever the entries are actually stored.
+	 */
+	public boolean isFresh() { return fresh; }
+
+	public boolean mightContain(long hash1, long hash2) {
+		hash2 |= 1; // Odd, so that the probes don't repeat.
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = (hash1 + i * hash2) & bitMask;
+			if ((bits.get((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) return false;
+		}
+		return true;
+	}
+
+	public synchronized void add(long hash1, long hash2) {
+		hash2 |= 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = (hash1 + i * hash2) & bitMask;
+			int index = (int) (bit >>> 3);
+			bits.put(index, (byte) (bits.get(index) | (1 << (bit & 7))));
+		}
+	}
+
+	/**
+	 * Writes changes out to the disk.
+	 */
+	public synchronized void force() {
+		bits.force();
+	}
+
+}
@@ -0,0 +1,318 @@
+package org.w1ljid.projectdownloader.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counters, gauges and latency histograms, periodically written to a JSON file and to a file in Prometheus' text format
+ * (which node_exporter's textfile collector can serve). Recording is a few uncontended atomic additions, so it can be done per file.
+ * Every metric may have one label, for example which stage a latency belongs to. Metrics are registered once, then recorded into from any thread.
+ */
+public class Metrics implements AutoCloseable {
+
+	private static final int BUCKETS = 28; // Upper bounds of 1 us, 2 us, 4 us ... about 134 s, then everything longer
+
+	private final File jsonFile;
+	private final File prometheusFile;
+	private final long intervalSeconds;
+	private final Map<String, Family> families = new LinkedHashMap<>();
+	private ScheduledExecutorService writer;
+
+
+	/**
+	 * Counts events, or amounts such as bytes.
+	 */
+	public static class Counter {
+		private final LongAdder value = new LongAdder();
+
+		public void increment() { value.increment(); }
+
+		public void add(long amount) { value.add(amount); }
+
+		public long get() { return value.sum(); }
+	}
+
+	/**
+	 * Distribution of durations, in buckets that double in size.
+	 */
+	public static class Histogram {
+		private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+		private final LongAdder sumNanos = new LongAdder();
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+		}
+
+		/**
+		 * Records the time since a {@link System#nanoTime()} reading.
+		 * @return The current {@link System#nanoTime()}, so that consecutive stages can be timed with one reading each.
+		 */
+		public long recordSince(long startNanos) {
+			long now = System.nanoTime();
+			record(now - startNanos);
+			return now;
+		}
+
+		public void record(long nanos) {
+			int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, nanos - 1) / 1000);
+			buckets[Math.min(bucket, BUCKETS)].increment();
+			sumNanos.add(nanos);
+		}
+
+		public long getCount() {
+			long count = 0;
+			for (LongAdder bucket : buckets) count += bucket.sum();
+			return count;
+		}
+
+		public long getSumNanos() { return sumNanos.sum(); }
+
+		/**
+		 * @return The upper bound of the bucket the quantile falls into, in nanoseconds. Long.MAX_VALUE if it is past the last bound, 0 if nothing was recorded.
+		 */
+		public long getQuantileNanos(double quantile) {
+			long[] counts = new long[buckets.length];
+			long total = 0;
+			for (int i = 0; i < counts.length; i++) total += counts[i] = buckets[i].sum();
+			if (total == 0) return 0;
+
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank) return upperBoundNanos(i);
+			}
+			return Long.MAX_VALUE;
+		}
+	}
+
+
+	/**
+	 * Metrics of the same name, one per label value.
+	 */
+	private static class Family {
+		final String name;
+		final String help;
+		final String type;
+		final String labelName;
+		final Map<String, Object> series = new LinkedHashMap<>(); // Counter, Histogram or LongSupplier, by label value
+
+		Family(String name, String help, String type, String labelName) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.labelName = labelName;
+		}
+	}
+
+
+	/**
+	 * @param jsonFile Where the JSON snapshot is written, or null.
+	 * @param prometheusFile Where the Prometheus text is written, or null.
+	 * @param intervalSeconds How often the files are written.
+	 */
+	public Metrics(File jsonFile, File prometheusFile, long intervalSeconds) {
+		this.jsonFile = jsonFile;
+		this.prometheusFile = prometheusFile;
+		this.intervalSeconds = intervalSeconds;
+	}
+
+
+	/**
+	 * Starts writing the files, if there are any.
+	 */
+	public synchronized void initialize() {
+		if (jsonFile == null && prometheusFile == null) return;
+
+		writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Metrics writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		writer.scheduleWithFixedDelay(() -> {
+			try {
+				write();
+			} catch (IOException e) {
+				System.err.println("Failed to write metrics: " + e);
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	public Counter counter(String name, String help) {
+		return counter(name, help, null, null);
+	}
+
+	/**
+	 * @return The counter with this name and label value, created on first use.
+	 */
+	public Counter counter(String name, String help, String labelName, String labelValue) {
+		return (Counter) register(name, help, "counter", labelName, labelValue, Counter::new);
+	}
+
+	/**
+	 * @return The histogram with this name and label value, created on first use. Its name should end in "_seconds".
+	 */
+	public Histogram histogram(String name, String help, String labelName, String labelValue) {
+		return (Histogram) register(name, help, "histogram", labelName, labelValue, Histogram::new);
+	}
+
+	/**
+	 * Registers a value that is read whenever the metrics are written.
+	 */
+	public synchronized void gauge(String name, String help, LongSupplier value) {
+		Family family = families.computeIfAbsent(name, n -> new Family(n, help, "gauge", null));
+		family.series.put("", value);
+	}
+
+	private synchronized Object register(String name, String help, String type, String labelName, String labelValue, Supplier<Object> create) {
+		Family family = families.computeIfAbsent(name, n -> new Family(n, help, type, labelName));
+		if (!family.type.equals(type)) throw new IllegalArgumentException("\"" + name + "\" is already a " + family.type);
+		return family.series.computeIfAbsent(labelValue != null ? labelValue : "", v -> create.get());
+	}
+
+
+	/**
+	 * Writes the files now.
+	 */
+	public synchronized void write() throws IOException {
+		if (jsonFile != null) replace(jsonFile, toJson());
+		if (prometheusFile != null) replace(prometheusFile, toPrometheus());
+	}
+
+	/**
+	 * Stops the periodic writes and writes the files a last time.
+	 */
+	@Override
+	public void close() throws IOException {
+		ScheduledExecutorService writer;
+		synchronized (this) {
+			writer = this.writer;
+			this.writer = null;
+		}
+		if (writer == null) return;
+
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		write();
+	}
+
+
+	synchronized String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"time\": \"").append(Instant.now()).append('"');
+		for (Family family : families.values()) {
+			sb.append(",\n  \"").append(family.name).append("\": ");
+			boolean labeled = family.labelName != null;
+			if (labeled) sb.append('{');
+			boolean first = true;
+			for (Map.Entry<String, Object> entry : family.series.entrySet()) {
+				if (labeled) {
+					sb.append(first ? "\n    \"" : ",\n    \"").append(jsonEscape(entry.getKey())).append("\": ");
+				}
+				first = false;
+				Object series = entry.getValue();
+				if (series instanceof Histogram) {
+					Histogram histogram = (Histogram) series;
+					long count = histogram.getCount();
+					long sum = histogram.getSumNanos();
+					sb.append("{\"count\": ").append(count)
+						.append(", \"sum_ms\": ").append(millis(sum))
+						.append(", \"mean_ms\": ").append(count > 0 ? millis(sum / count) : "0")
+						.append(", \"p50_ms\": ").append(millis(histogram.getQuantileNanos(0.5)))
+						.append(", \"p90_ms\": ").append(millis(histogram.getQuantileNanos(0.9)))
+						.append(", \"p99_ms\": ").append(millis(histogram.getQuantileNanos(0.99)))
+						.append('}');
+				} else {
+					sb.append(value(series));
+				}
+			}
+			if (labeled) sb.append("\n  }");
+		}
+		sb.append("\n}\n");
+		return sb.toString();
+	}
+
+	synchronized String toPrometheus() {
+		StringBuilder sb = new StringBuilder();
+		for (Family family : families.values()) {
+			sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+			for (Map.Entry<String, Object> entry : family.series.entrySet()) {
+				String label = family.labelName != null ? family.labelName + "=\"" + prometheusEscape(entry.getKey()) + "\"" : null;
+				Object series = entry.getValue();
+				if (series instanceof Histogram) {
+					Histogram histogram = (Histogram) series;
+					long cumulative = 0;
+					for (int i = 0; i <= BUCKETS; i++) {
+						cumulative += histogram.buckets[i].sum();
+						String le = i < BUCKETS ? seconds(upperBoundNanos(i)) : "+Inf";
+						sb.append(family.name).append("_bucket{").append(label != null ? label + "," : "").append("le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+					}
+					String labels = label != null ? "{" + label + "}" : "";
+					sb.append(family.name).append("_sum").append(labels).append(' ').append(seconds(histogram.getSumNanos())).append('\n');
+					sb.append(family.name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+				} else {
+					sb.append(family.name).append(label != null ? "{" + label + "}" : "").append(' ').append(value(series)).append('\n');
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+
+	private static long upperBoundNanos(int bucket) {
+		return 1000L << bucket;
+	}
+
+	private static long value(Object series) {
+		return series instanceof Counter ? ((Counter) series).get() : ((LongSupplier) series).getAsLong();
+	}
+
+	private static String millis(long nanos) {
+		return nanos == Long.MAX_VALUE ? "\"inf\"" : String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+	}
+
+	private static String jsonEscape(String string) {
+		return string.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static String prometheusEscape(String string) {
+		return string.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Writes the file under a temporary name first, so readers never see half of it.
+	 */
+	private static void replace(File file, String content) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+			w.write(content);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+}
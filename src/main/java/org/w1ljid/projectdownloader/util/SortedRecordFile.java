@@ -0,0 +1,277 @@
+package org.w1ljid.projectdownloader.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only file of fixed-width records, sorted by a key at the start of each
+ * record. The file is memory-mapped, so lookups are binary searches that need
+ * very little heap: only the first 8 key bytes of every 1024th record are kept
+ * in memory, to narrow searches down to a single block of the file. Files are
+ * created with a {@link Writer}. Safe to read from multiple threads.
+ */
+public final class SortedRecordFile {
+
+	private static final int MAGIC = 0x53524631; // "SRF1"
+	private static final int HEADER_LENGTH = 20;
+	private static final long MAX_CHUNK_LENGTH = Integer.MAX_VALUE;
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final int FENCE_INTERVAL = 1024;
+
+	private final Path path;
+	private final int keyLength;
+	private final int recordLength;
+	private final long count;
+	private final long recordsPerChunk;
+	private final MappedByteBuffer[] chunks;
+	private final long[] fences; // Key prefixes of every FENCE_INTERVAL-th record
+
+
+	private SortedRecordFile(Path path, int keyLength, int recordLength, long count, MappedByteBuffer[] chunks, long recordsPerChunk) {
+		this.path = path;
+		this.keyLength = keyLength;
+		this.recordLength = recordLength;
+		this.count = count;
+		this.chunks = chunks;
+		this.recordsPerChunk = recordsPerChunk;
+
+		fences = new long[(int) ((count + FENCE_INTERVAL - 1) / FENCE_INTERVAL)];
+		for (int i = 0; i < fences.length; i++) {
+			fences[i] = recordPrefix((long) i * FENCE_INTERVAL);
+		}
+	}
+
+
+	/**
+	 * Maps an existing file.
+	 * @throws IOException If the file can't be read or isn't a complete record file.
+	 */
+	public static SortedRecordFile open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) throw new IOException("Truncated header in \"" + path + "\"");
+			}
+			header.flip();
+
+			if (header.getInt() != MAGIC) throw new IOException("\"" + path + "\" is not a record file");
+			int keyLength = header.getInt();
+			int recordLength = header.getInt();
+			long count = header.getLong();
+			if (keyLength <= 0 || recordLength < keyLength || count < 0 || channel.size() != HEADER_LENGTH + count * recordLength) {
+				throw new IOException("\"" + path + "\" is corrupt or incomplete");
+			}
+
+			// A single mapping can't be larger than 2 GiB, so large files are mapped in chunks of whole records.
+			long recordsPerChunk = MAX_CHUNK_LENGTH / recordLength;
+			int chunkCount = (int) ((count + recordsPerChunk - 1) / recordsPerChunk);
+			MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				long first = i * recordsPerChunk;
+				long records = Math.min(recordsPerChunk, count - first);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH + first * recordLength, records * recordLength);
+			}
+
+			return new SortedRecordFile(path, keyLength, recordLength, count, chunks, recordsPerChunk);
+		}
+	}
+
+
+	public Path getPath() { return path; }
+
+	public int getKeyLength() { return keyLength; }
+
+	public int getRecordLength() { return recordLength; }
+
+	public long size() { return count; }
+
+	/**
+	 * Finds the record with the given key.
+	 * @param key At least {@link #getKeyLength()} bytes, only that many are compared.
+	 * @return The index of the record, or -1 if there is none.
+	 */
+	public long find(byte[] key) {
+		// Every record whose key starts with the same prefix lies between these two fences.
+		long prefix = keyPrefix(key);
+		int firstNotBelow = fenceSearch(prefix, false);
+		int firstAbove = fenceSearch(prefix, true);
+		long low = Math.max(0, firstNotBelow - 1) * (long) FENCE_INTERVAL;
+		long high = Math.min(count, firstAbove * (long) FENCE_INTERVAL) - 1;
+
+		while (low <= high) {
+			long mid = (low + high) >>> 1;
+			int cmp = compareKey(mid, key);
+			if (cmp < 0) low = mid + 1;
+			else if (cmp > 0) high = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Copies a whole record into the array.
+	 */
+	public void read(long index, byte[] into, int offset) {
+		ByteBuffer chunk = chunks[(int) (index / recordsPerChunk)];
+		int position = (int) (index % recordsPerChunk) * recordLength;
+		for (int i = 0; i < recordLength; i++) {
+			into[offset + i] = chunk.get(position + i);
+		}
+	}
+
+	/**
+	 * Reads a single byte of a record.
+	 */
+	public byte get(long index, int offsetInRecord) {
+		return chunks[(int) (index / recordsPerChunk)].get((int) (index % recordsPerChunk) * recordLength + offsetInRecord);
+	}
+
+	/**
+	 * @return The index of the first fence that is greater than (or, when not strict, at least) the prefix, or the number of fences if there is none.
+	 */
+	private int fenceSearch(long prefix, boolean strict) {
+		int low = 0;
+		int high = fences.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = Long.compareUnsigned(fences[mid], prefix);
+			if (cmp < 0 || (strict && cmp == 0)) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	private long keyPrefix(byte[] key) {
+		if (keyLength >= Long.BYTES) return (long) LONGS.get(key, 0);
+
+		long prefix = 0;
+		for (int i = 0; i < Long.BYTES; i++) {
+			prefix = (prefix << 8) | (i < keyLength ? key[i] & 0xFF : 0);
+		}
+		return prefix;
+	}
+
+	private long recordPrefix(long index) {
+		ByteBuffer chunk = chunks[(int) (index / recordsPerChunk)];
+		int position = (int) (index % recordsPerChunk) * recordLength;
+		if (keyLength >= Long.BYTES) return chunk.getLong(position);
+
+		long prefix = 0;
+		for (int i = 0; i < Long.BYTES; i++) {
+			prefix = (prefix << 8) | (i < keyLength ? chunk.get(position + i) & 0xFF : 0);
+		}
+		return prefix;
+	}
+
+	private int compareKey(long index, byte[] key) {
+		ByteBuffer chunk = chunks[(int) (index / recordsPerChunk)];
+		int position = (int) (index % recordsPerChunk) * recordLength;
+		int i = 0;
+		for (; i + Long.BYTES <= keyLength; i += Long.BYTES) { // Big-endian longs compare like their bytes when compared unsigned.
+			long a = chunk.getLong(position + i);
+			long b = (long) LONGS.get(key, i);
+			if (a != b) return Long.compareUnsigned(a, b);
+		}
+		for (; i < keyLength; i++) {
+			int cmp = Integer.compare(chunk.get(position + i) & 0xFF, key[i] & 0xFF);
+			if (cmp != 0) return cmp;
+		}
+		return 0;
+	}
+
+	/**
+	 * Compares the keys of two records the same way the file is sorted.
+	 */
+	public static int compareKeys(byte[] a, int aOffset, byte[] b, int bOffset, int keyLength) {
+		for (int i = 0; i < keyLength; i++) {
+			int cmp = Integer.compare(a[aOffset + i] & 0xFF, b[bOffset + i] & 0xFF);
+			if (cmp != 0) return cmp;
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Writes a new record file. Records have to be appended in ascending key order, without duplicate keys. The file only appears under its final name once {@link #finish()} succeeds, so a crash never leaves a partial file behind.
+	 */
+	public static final class Writer implements AutoCloseable {
+
+		private final Path path;
+		private final Path tempPath;
+		private final int keyLength;
+		private final int recordLength;
+		private final DataOutputStream out;
+		private final byte[] lastKey;
+		private long count;
+		private boolean finished;
+
+
+		public Writer(Path path, int keyLength, int recordLength) throws IOException {
+			if (keyLength <= 0 || recordLength < keyLength) throw new IllegalArgumentException("invalid key or record length");
+
+			this.path = path;
+			this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+			this.keyLength = keyLength;
+			this.recordLength = recordLength;
+			this.lastKey = new byte[keyLength];
+
+			OutputStream file = Files.newOutputStream(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			out.write(new byte[HEADER_LENGTH]); // Filled in by finish()
+		}
+
+
+		public void append(byte[] record, int offset) throws IOException {
+			if (count > 0 && compareKeys(lastKey, 0, record, offset, keyLength) >= 0) {
+				throw new IllegalArgumentException("records must be appended in strictly ascending key order");
+			}
+			System.arraycopy(record, offset, lastKey, 0, keyLength);
+			out.write(record, offset, recordLength);
+			count++;
+		}
+
+		public long size() { return count; }
+
+		/**
+		 * Writes the header, syncs the file to the disk, and moves it to its final name.
+		 */
+		public SortedRecordFile finish() throws IOException {
+			out.close();
+
+			try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				header.putInt(MAGIC).putInt(keyLength).putInt(recordLength).putLong(count).flip();
+				while (header.hasRemaining()) channel.write(header, header.position());
+				channel.force(true);
+			}
+
+			Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			finished = true;
+			return open(path);
+		}
+
+		/**
+		 * Discards the file if it wasn't finished.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (finished) return;
+			out.close();
+			Files.deleteIfExists(tempPath);
+		}
+
+	}
+
+}
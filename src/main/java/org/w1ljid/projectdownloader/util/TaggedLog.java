@@ -0,0 +1,39 @@
+package org.w1ljid.projectdownloader.util;
+
+/**
+ * Console output where every line is prefixed with a tag, so that messages of
+ * concurrently processed repositories can be told apart. Lines are written
+ * atomically, even together with stack traces.
+ */
+public class TaggedLog {
+
+	private static final Object LOCK = new Object();
+
+	private final String prefix;
+
+
+	public TaggedLog(String tag) {
+		this.prefix = tag != null ? "[" + tag + "] " : "";
+	}
+
+
+	public void println(String line) {
+		synchronized (LOCK) {
+			System.out.println(prefix + line);
+		}
+	}
+
+	public void error(String line) {
+		synchronized (LOCK) {
+			System.err.println(prefix + line);
+		}
+	}
+
+	public void error(String line, Throwable t) {
+		synchronized (LOCK) {
+			System.err.println(prefix + line);
+			t.printStackTrace();
+		}
+	}
+
+}
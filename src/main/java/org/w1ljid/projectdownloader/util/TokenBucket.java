@@ -0,0 +1,96 @@
+package org.w1ljid.projectdownloader.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out permits at a steady rate, allowing short bursts. Callers that
+ * take a permit before one is available wait for their turn, in the order
+ * they asked. The rate can be changed at any time, and the bucket can be
+ * paused, which is how callers back off when a server says they are going
+ * too fast. Safe to use from multiple threads.
+ */
+public final class TokenBucket {
+
+	private final Clock clock;
+	private final double burst;
+	private double rate; // Permits per second
+	private double tokens; // Negative when permits were promised to waiting callers
+	private long refilledAt; // May be in the future while paused
+
+
+	/**
+	 * Where the bucket gets the time from, and how it waits. Tests replace it to not actually wait.
+	 */
+	public interface Clock {
+		Clock SYSTEM = new Clock() {
+			@Override
+			public long nanoTime() { return System.nanoTime(); }
+
+			@Override
+			public void sleep(long nanos) throws InterruptedException { TimeUnit.NANOSECONDS.sleep(nanos); }
+		};
+
+		long nanoTime();
+
+		void sleep(long nanos) throws InterruptedException;
+	}
+
+
+	/**
+	 * @param permitsPerSecond Long-term rate.
+	 * @param burst How many permits may be taken at once after a quiet period. At least 1.
+	 */
+	public TokenBucket(double permitsPerSecond, double burst) {
+		this(permitsPerSecond, burst, Clock.SYSTEM);
+	}
+
+	public TokenBucket(double permitsPerSecond, double burst, Clock clock) {
+		if (permitsPerSecond <= 0 || burst < 1) throw new IllegalArgumentException("rate must be positive and burst at least 1");
+
+		this.clock = clock;
+		this.rate = permitsPerSecond;
+		this.burst = burst;
+		this.tokens = burst;
+		this.refilledAt = clock.nanoTime();
+	}
+
+
+	public synchronized double getRate() { return rate; }
+
+	public synchronized void setRate(double permitsPerSecond) {
+		if (permitsPerSecond <= 0) throw new IllegalArgumentException("rate must be positive");
+		refill(clock.nanoTime());
+		rate = permitsPerSecond;
+	}
+
+	/**
+	 * Stops handing out permits for the given time. Permits saved up before are dropped.
+	 */
+	public synchronized void pause(long duration, TimeUnit unit) {
+		long now = clock.nanoTime();
+		refill(now);
+		tokens = Math.min(tokens, 0);
+		refilledAt = Math.max(refilledAt, now + unit.toNanos(duration));
+	}
+
+	/**
+	 * Takes a permit, waiting until it is available.
+	 */
+	public void acquire() throws InterruptedException {
+		long wait;
+		synchronized (this) {
+			long now = clock.nanoTime();
+			refill(now);
+			tokens -= 1;
+			wait = Math.max(0, refilledAt - now) + (tokens < 0 ? (long) (-tokens / rate * 1e9) : 0);
+		}
+		if (wait > 0) clock.sleep(wait);
+	}
+
+	private void refill(long now) {
+		if (now <= refilledAt) return;
+		tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * rate);
+		refilledAt = now;
+	}
+
+}
@@ -0,0 +1,176 @@
+package org.w1ljid.projectdownloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.PushConnection;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportProtocol;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w1ljid.projectdownloader.util.TaggedLog;
+
+/**
+ * {@link Main#fetchRef} against a local bare repository with a few commits, directly and through a transport that can't fetch shallowly.
+ */
+class FetchRefTest {
+
+	private static final String MAIN = "refs/heads/main";
+	private static final NoShallowProtocol NO_SHALLOW = new NoShallowProtocol();
+
+	@TempDir
+	Path directory;
+
+	private File origin;
+	private final List<RevCommit> commits = new ArrayList<>(); // Oldest first
+
+
+	/**
+	 * Like the local file transport, but refuses depth-limited fetches, like dumb HTTP servers do. "noshallow:///path" reads "file:///path".
+	 */
+	private static class NoShallowProtocol extends TransportProtocol {
+		final AtomicInteger refused = new AtomicInteger();
+
+		@Override
+		public String getName() { return "Local, without shallow fetches"; }
+
+		@Override
+		public Set<String> getSchemes() { return Set.of("noshallow"); }
+
+		@Override
+		public Set<URIishField> getRequiredFields() { return Set.of(URIishField.PATH); }
+
+		@Override
+		public Transport open(URIish uri, Repository local, String remoteName) throws NotSupportedException, org.eclipse.jgit.errors.TransportException {
+			Transport delegate = Transport.open(local, uri.setScheme("file"));
+			return new Transport(local, uri) {
+				@Override
+				public FetchConnection openFetch() throws NotSupportedException, org.eclipse.jgit.errors.TransportException {
+					if (getDepth() != null) {
+						refused.incrementAndGet();
+						throw new org.eclipse.jgit.errors.TransportException(uri, "shallow fetches are not supported");
+					}
+					return delegate.openFetch();
+				}
+
+				@Override
+				public PushConnection openPush() throws NotSupportedException {
+					throw new NotSupportedException("Fetching only");
+				}
+
+				@Override
+				public void close() {
+					delegate.close();
+				}
+			};
+		}
+	}
+
+
+	@BeforeAll
+	static void registerProtocol() {
+		Transport.register(NO_SHALLOW);
+	}
+
+	@AfterAll
+	static void unregisterProtocol() {
+		Transport.unregister(NO_SHALLOW);
+	}
+
+	@BeforeEach
+	void createOrigin() throws Exception {
+		File work = directory.resolve("work").toFile();
+		try (Git git = Git.init().setDirectory(work).setInitialBranch("main").call()) {
+			for (int i = 0; i < 3; i++) {
+				Files.write(new File(work, "Foo.java").toPath(), ("class Foo { int version = " + i + "; }\n").getBytes(StandardCharsets.UTF_8));
+				git.add().addFilepattern(".").call();
+				commits.add(git.commit().setMessage("Version " + i).setAuthor("a", "a@b").setCommitter("a", "a@b").call());
+			}
+		}
+
+		origin = directory.resolve("origin.git").toFile();
+		Git.cloneRepository().setURI(work.toURI().toString()).setDirectory(origin).setBare(true).call().close();
+	}
+
+
+	@Test
+	void shallowFetchOnlyTransfersTheTip() throws Exception {
+		try (Git target = Git.init().setBare(true).setDirectory(directory.resolve("target.git").toFile()).call()) {
+			Main.fetchRef(target, origin.toURI().toString(), mainRef(origin.toURI().toString()), null, new TaggedLog("test"));
+
+			Repository repository = target.getRepository();
+			RevCommit tip = commits.get(commits.size() - 1);
+			assertEquals(tip, repository.exactRef(MAIN).getObjectId());
+			assertEquals(Set.of(tip), repository.getObjectDatabase().getShallowCommits());
+			try (ObjectReader reader = repository.newObjectReader()) {
+				assertTrue(reader.has(tip));
+				assertTrue(reader.has(tip.getTree()));
+				for (RevCommit old : commits.subList(0, commits.size() - 1)) {
+					assertFalse(reader.has(old), "Older commit " + old.name() + " was fetched");
+					assertFalse(reader.has(old.getTree()), "Older tree " + old.getTree().name() + " was fetched");
+				}
+			}
+		}
+	}
+
+	@Test
+	void fallsBackToAFullFetchWhenShallowFails() throws Exception {
+		String url = "noshallow://" + origin.getAbsoluteFile().toURI().getPath();
+
+		try (Git target = Git.init().setBare(true).setDirectory(directory.resolve("target.git").toFile()).call()) {
+			assertThrows(TransportException.class, () -> target.fetch().setRemote(url).setRefSpecs(new RefSpec(MAIN + ":" + MAIN)).setDepth(1).call());
+			int refusedBefore = NO_SHALLOW.refused.get();
+
+			Main.fetchRef(target, url, mainRef(origin.toURI().toString()), null, new TaggedLog("test"));
+
+			assertEquals(refusedBefore + 1, NO_SHALLOW.refused.get(), "fetchRef didn't try a shallow fetch first");
+
+			Repository repository = target.getRepository();
+			assertEquals(commits.get(commits.size() - 1), repository.exactRef(MAIN).getObjectId());
+			assertTrue(repository.getObjectDatabase().getShallowCommits().isEmpty());
+			try (ObjectReader reader = repository.newObjectReader(); RevWalk walk = new RevWalk(reader)) {
+				for (RevCommit commit : commits) {
+					assertTrue(reader.has(commit), "Commit " + commit.name() + " is missing after the full fetch");
+				}
+				walk.markStart(walk.parseCommit(repository.resolve(MAIN)));
+				int count = 0;
+				for (RevCommit _c : walk) count++;
+				assertEquals(commits.size(), count);
+			}
+		}
+	}
+
+
+	private static Ref mainRef(String url) throws Exception {
+		for (Ref ref : Git.lsRemoteRepository().setRemote(url).call()) {
+			if (ref.getName().equals(MAIN)) return ref;
+		}
+		throw new AssertionError("No " + MAIN + " at " + url);
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.w1ljid.projectdownloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+/**
+ * A {@link GitHubConnector} that answers from the test instead of the network, and remembers what it was asked.
+ */
+public class StubConnector implements GitHubConnector {
+
+	public static final String ENDPOINT = "https://api.github.test";
+
+	private final Responder responder;
+	private final List<GitHubConnectorRequest> requests = Collections.synchronizedList(new ArrayList<>());
+
+
+	/**
+	 * Answers a request, or throws to fail it like a broken connection would.
+	 */
+	public interface Responder {
+		Reply reply(GitHubConnectorRequest request) throws IOException;
+	}
+
+	public static class Reply {
+		final int status;
+		final Map<String, List<String>> headers = new HashMap<>();
+		final String body;
+
+		public Reply(int status, String body) {
+			this.status = status;
+			this.body = body;
+			headers.put("Content-Type", List.of("application/json; charset=utf-8"));
+		}
+
+		public static Reply ok(String body) {
+			return new Reply(200, body);
+		}
+
+		public Reply header(String name, Object value) {
+			headers.put(name, List.of(String.valueOf(value)));
+			return this;
+		}
+	}
+
+	/**
+	 * A GET request, like the ones github-api sends.
+	 */
+	public static class Request implements GitHubConnectorRequest {
+		private final URL url;
+
+		public Request(String path) {
+			try {
+				this.url = new URL(ENDPOINT + path);
+			} catch (MalformedURLException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+
+		@Override
+		public String method() { return "GET"; }
+
+		@Override
+		public Map<String, List<String>> allHeaders() { return Map.of(); }
+
+		@Override
+		public String header(String name) { return null; }
+
+		@Override
+		public String contentType() { return null; }
+
+		@Override
+		public InputStream body() { return null; }
+
+		@Override
+		public URL url() { return url; }
+
+		@Override
+		public boolean hasBody() { return false; }
+	}
+
+	private static class Response extends GitHubConnectorResponse {
+		private final byte[] body;
+
+		Response(GitHubConnectorRequest request, Reply reply) {
+			super(request, reply.status, reply.headers);
+			this.body = reply.body.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public InputStream bodyStream() {
+			return new ByteArrayInputStream(body);
+		}
+
+		@Override
+		public void close() {
+			// Nothing to release
+		}
+	}
+
+
+	public StubConnector(Responder responder) {
+		this.responder = responder;
+	}
+
+
+	@Override
+	public GitHubConnectorResponse send(GitHubConnectorRequest request) throws IOException {
+		requests.add(request);
+		return new Response(request, responder.reply(request));
+	}
+
+	/**
+	 * Every request sent so far, oldest first.
+	 */
+	public List<GitHubConnectorRequest> getRequests() {
+		synchronized (requests) {
+			return new ArrayList<>(requests);
+		}
+	}
+
+	/**
+	 * An anonymous client that sends everything to this connector.
+	 */
+	public GitHub connect() throws IOException {
+		return new GitHubBuilder().withEndpoint(ENDPOINT).withConnector(this).build();
+	}
+
+	/**
+	 * JSON for a repository, with the fields the downloader uses.
+	 */
+	public static String repositoryJson(String fullName, long sizeKiB, String defaultBranch) {
+		return "{\"id\": " + Math.abs(fullName.hashCode()) + ", \"name\": \"" + fullName.substring(fullName.indexOf('/') + 1) + "\", \"full_name\": \"" + fullName + "\""
+			+ ", \"owner\": {\"login\": \"" + fullName.substring(0, fullName.indexOf('/')) + "\"}"
+			+ ", \"url\": \"" + ENDPOINT + "/repos/" + fullName + "\", \"html_url\": \"https://github.test/" + fullName + "\", \"clone_url\": \"https://github.test/" + fullName + ".git\""
+			+ ", \"size\": " + sizeKiB + ", \"default_branch\": \"" + defaultBranch + "\"}";
+	}
+
+}
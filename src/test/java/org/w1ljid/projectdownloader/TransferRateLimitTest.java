@@ -0,0 +1,52 @@
+package org.w1ljid.projectdownloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.jupiter.api.Test;
+import org.w1ljid.projectdownloader.util.TokenBucket;
+
+/**
+ * {@link Main#isTransferRateLimited} on failures like JGit reports them, and how {@link Main#slowDownTransfers} and {@link Main#speedUpTransfers} move the rate.
+ */
+class TransferRateLimitTest {
+
+	private static final double RATE = Main.gitTransfersPerMinute / 60;
+
+
+	@Test
+	void recognizesHttp429FromTheTransport() throws Exception {
+		URIish uri = new URIish("https://github.com/someone/project.git");
+		// What a fetch throws: the command's exception around the transport's.
+		assertTrue(Main.isTransferRateLimited(new TransportException("fetch failed", new org.eclipse.jgit.errors.TransportException(uri, "429 Too Many Requests"))));
+		assertTrue(Main.isTransferRateLimited(new org.eclipse.jgit.errors.TransportException(uri, "429 null")));
+	}
+
+	@Test
+	void ignoresOtherFailuresMentioning429() throws Exception {
+		URIish uri = new URIish("https://github.com/someone/project-429.git");
+		assertFalse(Main.isTransferRateLimited(new org.eclipse.jgit.errors.TransportException(uri, "500 Internal Server Error")));
+		assertFalse(Main.isTransferRateLimited(new org.eclipse.jgit.errors.TransportException(uri, "Missing object 429ab3e")));
+		assertFalse(Main.isTransferRateLimited(new IOException("https://github.com/someone/project.git: 429 Too Many Requests"))); // Not from the transport
+		assertFalse(Main.isTransferRateLimited(new IOException("API rate limit exceeded")));
+	}
+
+	@Test
+	void rateStaysBetweenFloorAndConfiguredRate() {
+		TokenBucket throttle = new TokenBucket(RATE, 1);
+		for (int i = 0; i < 20; i++) Main.slowDownTransfers(throttle);
+		assertEquals(RATE / 64, throttle.getRate(), 1e-9);
+
+		Main.speedUpTransfers(throttle);
+		assertEquals(RATE / 64 + RATE / 32, throttle.getRate(), 1e-9);
+
+		for (int i = 0; i < 40; i++) Main.speedUpTransfers(throttle);
+		assertEquals(RATE, throttle.getRate(), 1e-9);
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.w1ljid.projectdownloader.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.PagedIterable;
+import org.w1ljid.projectdownloader.StubConnector;
+import org.w1ljid.projectdownloader.StubConnector.Reply;
+
+/**
+ * {@link SearchPrefetcher} paging through search results served by a stub connector, a few repositories per page.
+ */
+class SearchPrefetcherTest {
+
+	private static final Pattern PAGE = Pattern.compile("[?&]page=(\\d+)");
+
+
+	/**
+	 * @param pages Number of repositories on each page.
+	 * @param failingPage Page that answers with a server error, or 0.
+	 */
+	private static StubConnector search(int[] pages, int failingPage) {
+		return new StubConnector(request -> {
+			Matcher matcher = PAGE.matcher(request.url().getQuery());
+			int page = matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+			if (page == failingPage) return new Reply(500, "{\"message\": \"Server Error\"}");
+
+			int first = 0;
+			for (int i = 0; i < page - 1; i++) first += pages[i];
+			List<String> items = new ArrayList<>();
+			for (int i = 0; i < pages[page - 1]; i++) items.add(StubConnector.repositoryJson("owner/repo" + (first + i), 10, "main"));
+			Reply reply = Reply.ok("{\"total_count\": " + IntStream.of(pages).sum() + ", \"items\": [" + String.join(", ", items) + "]}");
+			if (page < pages.length) reply.header("Link", "<" + StubConnector.ENDPOINT + "/search/repositories?q=language%3Ajava&page=" + (page + 1) + ">; rel=\"next\"");
+			return reply;
+		});
+	}
+
+	private static PagedIterable<GHRepository> results(StubConnector github) throws IOException {
+		return github.connect().searchRepositories().language("java").list();
+	}
+
+
+	@Test
+	void takesTheResultsInOrderThenEnds() throws Exception {
+		StubConnector github = search(new int[] { 3, 3, 2 }, 0);
+		try (SearchPrefetcher prefetcher = new SearchPrefetcher(results(github), 4)) {
+			prefetcher.start();
+			for (int i = 0; i < 8; i++) {
+				Candidate candidate = prefetcher.take();
+				assertEquals("owner/repo" + i, candidate.getFullName());
+				assertEquals("https://github.test/owner/repo" + i + ".git", candidate.getTransportUrl());
+				assertEquals(10 * 1024, candidate.getSize());
+				assertEquals("main", candidate.getDefaultBranch());
+			}
+			assertNull(prefetcher.take());
+			assertNull(prefetcher.take(), "Still ended, instead of waiting for more");
+		}
+		assertEquals(3, github.getRequests().size());
+	}
+
+	@Test
+	void endsRightAwayWithoutResults() throws Exception {
+		try (SearchPrefetcher prefetcher = new SearchPrefetcher(results(search(new int[] { 0 }, 0)), 4)) {
+			prefetcher.start();
+			assertNull(prefetcher.take());
+		}
+	}
+
+	@Test
+	void reportsAFailureAfterTheResultsBeforeIt() throws Exception {
+		try (SearchPrefetcher prefetcher = new SearchPrefetcher(results(search(new int[] { 2, 2 }, 2)), 4)) {
+			prefetcher.start();
+			assertEquals("owner/repo0", prefetcher.take().getFullName());
+			assertEquals("owner/repo1", prefetcher.take().getFullName());
+			assertThrows(IOException.class, prefetcher::take);
+			assertNull(prefetcher.take(), "Reported once, then ended");
+		}
+	}
+
+	@Test
+	void staysAtMostItsCapacityAhead() throws Exception {
+		StubConnector github = search(new int[] { 1, 1, 1, 1, 1 }, 0);
+		try (SearchPrefetcher prefetcher = new SearchPrefetcher(results(github), 1)) {
+			prefetcher.start();
+
+			// One candidate waits in the queue, the next page's is held until there is room for it
+			awaitRequests(github, 2);
+			Thread.sleep(200);
+			assertEquals(2, github.getRequests().size(), "Requested pages beyond the capacity");
+
+			assertEquals("owner/repo0", prefetcher.take().getFullName());
+			awaitRequests(github, 3);
+			for (int i = 1; i < 5; i++) assertEquals("owner/repo" + i, prefetcher.take().getFullName());
+			assertNull(prefetcher.take());
+		}
+	}
+
+	private static void awaitRequests(StubConnector github, int count) throws InterruptedException {
+		long deadline = System.nanoTime() + 10_000_000_000L;
+		while (github.getRequests().size() < count) {
+			assertTrue(System.nanoTime() < deadline, "Only " + github.getRequests().size() + " of " + count + " pages were requested");
+			Thread.sleep(10);
+		}
+	}
+
+}
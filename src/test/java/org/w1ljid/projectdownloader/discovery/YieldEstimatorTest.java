@@ -0,0 +1,121 @@
+package org.w1ljid.projectdownloader.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.w1ljid.projectdownloader.StubConnector;
+import org.w1ljid.projectdownloader.StubConnector.Reply;
+
+/**
+ * {@link YieldEstimator} on tree listings served by a stub connector.
+ */
+class YieldEstimatorTest {
+
+	private static final String TREE = "{\"sha\": \"1234\", \"truncated\": %s, \"tree\": ["
+		+ "{\"path\": \"src/A.java\", \"type\": \"blob\", \"size\": 100},"
+		+ "{\"path\": \"src/B.java\", \"type\": \"blob\", \"size\": 200},"
+		+ "{\"path\": \"src/Generated.java\", \"type\": \"blob\", \"size\": 5000000}," // Too large
+		+ "{\"path\": \"README.md\", \"type\": \"blob\", \"size\": 300},"
+		+ "{\"path\": \"src/odd.java\", \"type\": \"tree\"}," // A directory
+		+ "{\"path\": \"lib\", \"type\": \"commit\"}" // A submodule
+		+ "]}";
+
+	private final YieldEstimator estimator = new YieldEstimator(".java", 1_000_000, 3);
+
+
+	private static Candidate candidate(boolean truncated) throws IOException {
+		return candidate(Reply.ok(String.format(TREE, truncated)));
+	}
+
+	/**
+	 * @param listing What listing the tree of the default branch returns.
+	 */
+	private static Candidate candidate(Reply listing) throws IOException {
+		StubConnector github = new StubConnector(request -> {
+			String path = request.url().getPath();
+			if (path.equals("/repos/owner/project")) return Reply.ok(StubConnector.repositoryJson("owner/project", 2048, "develop"));
+			if (path.equals("/repos/owner/project/git/trees/develop")) return listing;
+			return new Reply(404, "{\"message\": \"Not Found\"}");
+		});
+		return Candidate.of(github.connect().getRepository("owner/project"));
+	}
+
+
+	@Test
+	void countsSourceFilesThatArentTooLarge() throws IOException {
+		YieldEstimator.Estimate estimate = estimator.estimate(candidate(false));
+
+		assertEquals(2, estimate.getFiles());
+		assertEquals(300, estimate.getBytes());
+		assertFalse(estimate.isTruncated());
+		assertEquals(1, estimator.getChecked());
+	}
+
+	@Test
+	void skipsRepositoriesWithTooFewFiles() throws IOException {
+		Candidate candidate = candidate(false);
+		YieldEstimator.Estimate estimate = estimator.estimate(candidate);
+
+		assertFalse(estimator.isWorthFetching(candidate, estimate));
+		assertEquals(1, estimator.getSkipped());
+		assertEquals(2048 * 1024, estimator.getBytesSkipped());
+
+		YieldEstimator lenient = new YieldEstimator(".java", 1_000_000, 2);
+		assertTrue(lenient.isWorthFetching(candidate, lenient.estimate(candidate)));
+		assertEquals(0, lenient.getSkipped());
+	}
+
+	@Test
+	void fetchesTruncatedListingsWhateverTheyCount() throws IOException {
+		Candidate candidate = candidate(true);
+		YieldEstimator.Estimate estimate = estimator.estimate(candidate);
+
+		assertTrue(estimate.isTruncated());
+		assertEquals(2, estimate.getFiles(), "Only what was listed");
+		assertTrue(estimator.isWorthFetching(candidate, estimate));
+		assertEquals(0, estimator.getSkipped());
+	}
+
+	@Test
+	void emptyRepositoriesHaveNoFiles() throws IOException {
+		Candidate candidate = candidate(new Reply(409, "{\"message\": \"Git Repository is empty.\"}"));
+		YieldEstimator.Estimate estimate = estimator.estimate(candidate);
+
+		assertEquals(0, estimate.getFiles());
+		assertFalse(estimate.isTruncated());
+		assertFalse(estimator.isWorthFetching(candidate, estimate));
+		assertEquals(1, estimator.getChecked());
+	}
+
+	@Test
+	void reportsOtherListingFailures() throws IOException {
+		Candidate candidate = candidate(new Reply(500, "{\"message\": \"Server Error\"}"));
+
+		assertThrows(IOException.class, () -> estimator.estimate(candidate));
+		assertEquals(0, estimator.getChecked());
+		assertEquals(0, estimator.getSkipped());
+	}
+
+	@Test
+	void cantEstimateWithoutMetadata() throws IOException {
+		assertNull(estimator.estimate(new Candidate("owner/project", "https://github.test/owner/project.git", -1, "main")));
+		assertEquals(0, estimator.getChecked());
+	}
+
+	@Test
+	void countsHowFetchedRepositoriesTurnedOut() {
+		estimator.recordFetched(0);
+		estimator.recordFetched(3);
+		estimator.recordFetched(1);
+
+		assertEquals(3, estimator.getFetched());
+		assertEquals(2, estimator.getFetchedWithFinds());
+	}
+
+}
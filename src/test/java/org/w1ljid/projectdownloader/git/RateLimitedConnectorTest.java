@@ -0,0 +1,156 @@
+package org.w1ljid.projectdownloader.git;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+import org.w1ljid.projectdownloader.StubConnector;
+import org.w1ljid.projectdownloader.StubConnector.Reply;
+import org.w1ljid.projectdownloader.util.TokenBucket;
+
+/**
+ * {@link RateLimitedConnector} against scripted responses, on a clock that only moves when the connector waits.
+ */
+class RateLimitedConnectorTest {
+
+	private static final String CORE = "/repos/owner/project";
+	private static final String SEARCH = "/search/repositories?q=language%3Ajava";
+	private static final String SECONDARY_LIMIT = "{\"message\": \"You have exceeded a secondary rate limit. Please wait a few minutes before you try again.\"}";
+
+	private final FakeClock clock = new FakeClock();
+	private final Deque<Reply> replies = new ArrayDeque<>();
+	private final List<Double> sent = new ArrayList<>(); // Seconds on the clock of every request that reached GitHub
+	private final StubConnector github = new StubConnector(request -> {
+		sent.add(clock.seconds());
+		return replies.isEmpty() ? Reply.ok("{}") : replies.poll();
+	});
+
+
+	/**
+	 * At least as long as GitHub asked for, plus at most a few seconds for the next permit at the lowered rate (and the reset header's rounding).
+	 */
+	private static void assertWaited(double expected, double waited) {
+		assertTrue(waited >= expected && waited <= expected + 5, "Waited " + waited + " s instead of " + expected);
+	}
+
+	private static class FakeClock implements TokenBucket.Clock {
+		long now;
+
+		@Override
+		public long nanoTime() { return now; }
+
+		@Override
+		public void sleep(long nanos) { now += nanos; }
+
+		double seconds() { return now / 1e9; }
+	}
+
+
+	@Test
+	void pacesRequestsAtTheConfiguredRate() throws IOException {
+		RateLimitedConnector connector = new RateLimitedConnector(github, 1, 2, clock);
+		for (int i = 0; i < 30; i++) connector.send(new StubConnector.Request(CORE)).close();
+
+		assertEquals(0, sent.get(9), 1e-6, "The first 10 requests are a burst");
+		for (int i = 10; i < 30; i++) assertEquals(0.5, sent.get(i) - sent.get(i - 1), 1e-6, "Request " + i);
+	}
+
+	@Test
+	void slowsDownToWhatTheLimitHeaderAllows() throws IOException {
+		RateLimitedConnector connector = new RateLimitedConnector(github, 1, 100, clock);
+		for (int i = 0; i < 15; i++) {
+			replies.add(Reply.ok("{}").header("X-RateLimit-Limit", 30).header("X-RateLimit-Remaining", 29 - i));
+			connector.send(new StubConnector.Request(SEARCH)).close();
+		}
+
+		for (int i = 6; i < 15; i++) assertEquals(2, sent.get(i) - sent.get(i - 1), 1e-6, "30 per minute, request " + i);
+	}
+
+	@Test
+	void waitsAsLongAsRetryAfterSaysAndHalvesTheRate() throws IOException {
+		RateLimitedConnector connector = new RateLimitedConnector(github, 1, 1, clock);
+		replies.add(new Reply(429, "{}").header("Retry-After", 7));
+
+		try (GitHubConnectorResponse response = connector.send(new StubConnector.Request(CORE))) {
+			assertEquals(200, response.statusCode());
+		}
+		assertEquals(2, sent.size());
+		assertWaited(7, sent.get(1) - sent.get(0));
+
+		connector.send(new StubConnector.Request(CORE)).close();
+		connector.send(new StubConnector.Request(CORE)).close();
+		assertEquals(2, sent.get(3) - sent.get(2), 1e-6, "Half of one request per second");
+	}
+
+	@Test
+	void waitsForThePrimaryLimitToReset() throws IOException {
+		RateLimitedConnector connector = new RateLimitedConnector(github, 1, 1, clock);
+		replies.add(new Reply(403, "{\"message\": \"API rate limit exceeded\"}")
+			.header("X-RateLimit-Remaining", 0).header("X-RateLimit-Reset", System.currentTimeMillis() / 1000 + 30));
+
+		try (GitHubConnectorResponse response = connector.send(new StubConnector.Request(CORE))) {
+			assertEquals(200, response.statusCode());
+		}
+		assertWaited(30, sent.get(1) - sent.get(0));
+	}
+
+	@Test
+	void backsOffFromASecondaryLimitThatDoesNotSayHowLong() throws IOException {
+		RateLimitedConnector connector = new RateLimitedConnector(github, 1, 1, clock);
+		replies.add(new Reply(403, SECONDARY_LIMIT).header("X-RateLimit-Remaining", 4000));
+		replies.add(new Reply(403, SECONDARY_LIMIT).header("X-RateLimit-Remaining", 3999));
+
+		try (GitHubConnectorResponse response = connector.send(new StubConnector.Request(CORE))) {
+			assertEquals(200, response.statusCode());
+		}
+		assertEquals(3, sent.size());
+		assertWaited(60, sent.get(1) - sent.get(0));
+		assertWaited(120, sent.get(2) - sent.get(1)); // Doubles while the limit keeps being hit
+	}
+
+	@Test
+	void returnsOtherForbiddenResponsesWithTheirBody() throws IOException {
+		RateLimitedConnector connector = new RateLimitedConnector(github, 1, 1, clock);
+		String body = "{\"message\": \"Resource not accessible by integration\"}";
+		replies.add(new Reply(403, body).header("X-RateLimit-Remaining", 4000));
+
+		try (GitHubConnectorResponse response = connector.send(new StubConnector.Request(CORE))) {
+			assertEquals(403, response.statusCode());
+			assertArrayEquals(body.getBytes(StandardCharsets.UTF_8), response.bodyStream().readAllBytes());
+		}
+		assertEquals(1, sent.size());
+		assertEquals(0, clock.seconds(), 1e-6);
+	}
+
+	@Test
+	void givesUpAfterRetrying() throws IOException {
+		RateLimitedConnector connector = new RateLimitedConnector(github, 1, 1, clock);
+		for (int i = 0; i < 10; i++) replies.add(new Reply(429, "{}").header("Retry-After", 1));
+
+		try (GitHubConnectorResponse response = connector.send(new StubConnector.Request(CORE))) {
+			assertEquals(429, response.statusCode(), "The last refusal is passed on");
+		}
+		assertEquals(6, sent.size());
+	}
+
+	@Test
+	void pacesSearchAndCoreSeparately() throws IOException {
+		RateLimitedConnector connector = new RateLimitedConnector(github, 1, 1, clock);
+		replies.add(new Reply(429, "{}").header("Retry-After", 100));
+		connector.send(new StubConnector.Request(SEARCH)).close();
+		double searchDone = clock.seconds();
+
+		connector.send(new StubConnector.Request(CORE)).close();
+		assertEquals(searchDone, sent.get(sent.size() - 1), 1e-6, "The core request didn't wait for the search limit");
+	}
+
+}
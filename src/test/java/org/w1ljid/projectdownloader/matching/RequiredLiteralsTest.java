@@ -0,0 +1,38 @@
+package org.w1ljid.projectdownloader.matching;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class RequiredLiteralsTest {
+
+	private static final String EMOJI = new String(Character.toChars(0x1F600)); // Outside the BMP, a surrogate pair in a String
+
+	@Test
+	void literalPatternNeedsItsText() {
+		assertEquals(List.of(List.of("Foo.bar")), RequiredLiterals.of(Pattern.compile("Foo.bar", Pattern.LITERAL)));
+	}
+
+	@Test
+	void literalPatternWithFlagsThatMatchOtherTextNeedsNothing() {
+		assertEquals(List.of(), RequiredLiterals.of(Pattern.compile("Foo", Pattern.LITERAL | Pattern.CASE_INSENSITIVE)));
+		assertEquals(List.of(), RequiredLiterals.of(Pattern.compile("Foo", Pattern.LITERAL | Pattern.CANON_EQ)));
+	}
+
+	@Test
+	void sequenceAndAlternation() {
+		assertEquals(List.of(List.of("class"), List.of("Builder")), RequiredLiterals.of(Pattern.compile("class\\s+[A-z]*Builder")));
+		assertEquals(List.of(List.of("Foo", "Bar"), List.of("Baz")), RequiredLiterals.of(Pattern.compile("(Foo|Bar)Baz")));
+	}
+
+	@Test
+	void quantifierAppliesToTheWholeCodePoint() {
+		assertEquals(List.of(List.of("a" + EMOJI), List.of("b")), RequiredLiterals.of(Pattern.compile("a" + EMOJI + "+b")));
+		assertEquals(List.of(List.of("x"), List.of("y")), RequiredLiterals.of(Pattern.compile("x" + EMOJI + "?y")));
+		assertEquals(List.of(List.of("x"), List.of("y")), RequiredLiterals.of(Pattern.compile("x\\Q" + EMOJI + "\\E*y")));
+	}
+
+}